@@ -0,0 +1,72 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({"zip", "tar", "tar.gz"})
+    public String format;
+
+    @Param({"store", "fast", "default", "max"})
+    public String compression;
+
+    private ArchiveFormat archiveFormat;
+    private Compression archiveCompression;
+    private List<String> groupNames;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ArchiveSize {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void init() {
+        archiveFormat = ArchiveFormat.parse(format);
+        archiveCompression = Compression.parse(compression);
+        groupNames = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            groupNames.add("group" + i);
+        }
+    }
+
+    // the bundled configuration with 20 functional groups, including the NetCDF forcing file
+    @Benchmark
+    public void configArchive(ArchiveSize size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        Config.asStream(groupNames, Arrays.asList("phytoplankton", "zooplankton"), ConfigUtil.getDefaultValueFactory(),
+                false, archiveFormat, archiveCompression).write(out);
+        size.bytes = out.getByteCount();
+    }
+}
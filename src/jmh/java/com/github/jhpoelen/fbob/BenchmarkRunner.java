@@ -0,0 +1,28 @@
+package com.github.jhpoelen.fbob;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// runs the given benchmarks (default: HotPathBenchmark) with allocation rates, and keeps the results as json for comparison
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        if (args.length == 0) {
+            builder.include(HotPathBenchmark.class.getSimpleName());
+        }
+        for (String include : args) {
+            builder.include(include);
+        }
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("fbob.benchmark.result", "target/jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
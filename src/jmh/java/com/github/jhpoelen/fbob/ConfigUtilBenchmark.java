@@ -0,0 +1,104 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigUtilBenchmark {
+
+    @Param({"20", "300"})
+    public int groups;
+
+    private List<String> groupNames;
+    private List<String> implicitGroupNames;
+    private ValueFactory valueFactory;
+    private StreamFactory nullFactory;
+
+    @Setup
+    public void init() {
+        groupNames = new ArrayList<String>();
+        for (int i = 0; i < groups; i++) {
+            groupNames.add("group" + i);
+        }
+        implicitGroupNames = Arrays.asList("phytoplankton", "zooplankton");
+        valueFactory = ConfigUtil.getDefaultValueFactory();
+        nullFactory = new StreamFactory() {
+            @Override
+            public OutputStream outputStreamFor(String name) throws IOException {
+                return NullOutputStream.NULL_OUTPUT_STREAM;
+            }
+        };
+    }
+
+    @Benchmark
+    public void generateConfig() throws IOException {
+        ConfigUtil.generateConfigFor(groupNames, implicitGroupNames, nullFactory, valueFactory);
+    }
+
+    @Benchmark
+    public void generateConfigParallel() throws IOException {
+        ConfigUtil.generateConfigFor(SpeciesTable.of(groupNames), implicitGroupNames, nullFactory, valueFactory, false, "", WorkerPools.cpu());
+    }
+
+    @Benchmark
+    public void configArchive() throws IOException {
+        Config.asStream(groupNames, implicitGroupNames, valueFactory).write(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    @Benchmark
+    public void predationAccessibility() throws IOException {
+        ConfigUtil.generatePredationAccessibilityFor(SpeciesTable.of(groupNames), implicitGroupNames, nullFactory);
+    }
+
+    @Benchmark
+    public void paramLines() throws IOException {
+        try (ParamWriter writer = new ParamWriter(NullOutputStream.NULL_OUTPUT_STREAM)) {
+            for (int i = 0; i < groupNames.size(); i++) {
+                writer.row(i > 0).value("species.egg.size.sp", i).value("0.1");
+            }
+        }
+    }
+
+    @Benchmark
+    public void paramLinesLegacy() throws IOException {
+        for (int i = 0; i < groupNames.size(); i++) {
+            writeLineLegacy(NullOutputStream.NULL_OUTPUT_STREAM, Arrays.asList("species.egg.size.sp" + i, "0.1"), i > 0);
+        }
+    }
+
+    // the ConfigUtil.writeLine implementation used before ParamWriter
+    static void writeLineLegacy(OutputStream os, List<String> values, boolean leadingNewline) throws IOException {
+        List<String> escapedValues = new ArrayList<String>();
+        for (String value : values) {
+            escapedValues.add(StringEscapeUtils.escapeCsv(value));
+        }
+        String row = StringUtils.join(escapedValues, ";");
+        String line = leadingNewline ? ("\n" + row) : row;
+        IOUtils.copy(IOUtils.toInputStream(line, "UTF-8"), os);
+    }
+}
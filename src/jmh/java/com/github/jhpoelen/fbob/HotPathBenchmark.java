@@ -0,0 +1,93 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// the request path end to end: traits from fishbase json, parameter lines, generated and static archives
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+    private Set<String> staticResources;
+    private byte[] traits;
+    private List<String> line;
+
+    // only the generated config depends on the number of groups
+    @State(Scope.Benchmark)
+    public static class Groups {
+        @Param({"2", "20", "200", "2000"})
+        public int groups;
+
+        private SpeciesTable species;
+        private ValueFactory valueFactory;
+        private StreamFactory nullFactory;
+
+        @Setup
+        public void init() {
+            List<String> groupNames = new ArrayList<String>();
+            for (int i = 0; i < groups; i++) {
+                groupNames.add("group" + i);
+            }
+            species = SpeciesTable.of(groupNames);
+            valueFactory = ConfigUtil.getDefaultValueFactory();
+            nullFactory = new StreamFactory() {
+                @Override
+                public OutputStream outputStreamFor(String name) throws IOException {
+                    return NullOutputStream.NULL_OUTPUT_STREAM;
+                }
+            };
+        }
+    }
+
+    @Setup
+    public void init() throws IOException {
+        staticResources = Config.getResources();
+        traits = IOUtils.toByteArray(HotPathBenchmark.class.getResourceAsStream("ScomberomorusCavalla.json"));
+        line = Arrays.asList("species.length2weight.condition.factor.sp0", "0.00631");
+    }
+
+    @Benchmark
+    public void generateConfigFor(Groups config) throws IOException {
+        ConfigUtil.generateConfigFor(config.species, Config.LTL_GROUP_NAMES, config.nullFactory, config.valueFactory);
+    }
+
+    @Benchmark
+    public void staticArchive() throws IOException {
+        Config.toZipOutputStream(staticResources, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    @Benchmark
+    public Map<String, String> mapProperties() throws IOException {
+        return TraitFinder.mapProperties(new ByteArrayInputStream(traits), FishbaseMapping.getInstance());
+    }
+
+    @Benchmark
+    public void writeLine() throws IOException {
+        ConfigUtil.writeLine(NullOutputStream.NULL_OUTPUT_STREAM, line, true);
+    }
+}
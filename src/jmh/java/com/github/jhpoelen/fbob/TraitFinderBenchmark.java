@@ -0,0 +1,94 @@
+package com.github.jhpoelen.fbob;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraitFinderBenchmark {
+
+    @Param({"1", "100"})
+    public int records;
+
+    private byte[] json;
+    private byte[] mapping;
+
+    @Setup
+    public void init() throws IOException {
+        String fixture = IOUtils.toString(TraitFinderBenchmark.class.getResourceAsStream("ScomberomorusCavalla.json"), "UTF-8");
+        String record = StringUtils.substringBeforeLast(StringUtils.substringAfter(fixture, "\"data\": ["), "]");
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            data.append(i == 0 ? "" : ",").append(record);
+        }
+        json = ("{\"count\": " + records + ", \"returned\": " + records + ", \"data\": [" + data + "], \"error\": null}")
+                .getBytes(StandardCharsets.UTF_8);
+        mapping = IOUtils.toByteArray(TraitFinderBenchmark.class.getResourceAsStream("fishbase-mapping.csv"));
+    }
+
+    @Benchmark
+    public Map<String, String> streaming() throws IOException {
+        return TraitFinder.mapProperties(new ByteArrayInputStream(json), new ByteArrayInputStream(mapping));
+    }
+
+    @Benchmark
+    public Map<String, String> streamingCompiledMapping() throws IOException {
+        return TraitFinder.mapProperties(new ByteArrayInputStream(json), FishbaseMapping.getInstance());
+    }
+
+    @Benchmark
+    public Map<String, String> tree() throws IOException {
+        return mapPropertiesTree(new String(json, StandardCharsets.UTF_8), new ByteArrayInputStream(mapping));
+    }
+
+    // the tree based implementation TraitFinder.mapProperties used before switching to streaming
+    static Map<String, String> mapPropertiesTree(String jsonString, InputStream mappingInputStream) throws IOException {
+        Map<String, String> speciesProperties = new HashMap<String, String>();
+        final JsonNode jsonNode = new ObjectMapper().readTree(jsonString);
+        final JsonNode data = jsonNode.get("data");
+        if (data != null && data.isArray() && data.size() > 0) {
+            final JsonNode firstHit = data.get(0);
+            final CSVReader reader = new CSVReader(new InputStreamReader(mappingInputStream), ',');
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                final String fishbaseColumnName = line[1];
+                if (line.length > 3 && StringUtils.isNotBlank(fishbaseColumnName)) {
+                    final JsonNode trait = firstHit.get(fishbaseColumnName);
+                    String value = null;
+                    if (trait != null) {
+                        value = trait.asText();
+                    }
+                    speciesProperties.put(line[2], value == null ? line[3] : value);
+                }
+            }
+        }
+        return speciesProperties;
+    }
+}
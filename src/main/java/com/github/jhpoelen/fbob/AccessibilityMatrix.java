@@ -0,0 +1,103 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// predation accessibility of prey stages (rows) to predator stages (columns): zero unless set explicitly
+public class AccessibilityMatrix {
+
+    public static final String ZERO = "0.0";
+
+    private final int speciesCount;
+    private final List<String> stages;
+    private final Map<Integer, TreeMap<Integer, String>> coefficientsByPrey = new HashMap<Integer, TreeMap<Integer, String>>();
+
+    AccessibilityMatrix(int speciesCount, List<String> stages) {
+        this.speciesCount = speciesCount;
+        this.stages = Collections.unmodifiableList(stages);
+    }
+
+    public static AccessibilityMatrix forSpecies(SpeciesTable species, List<String> implicitGroupNames) {
+        List<String> stages = new ArrayList<String>(2 * species.size() + implicitGroupNames.size());
+        for (String groupName : species.getNames()) {
+            stages.add(groupName + " < 0.0 year");
+            stages.add(groupName + " > 0.0 year");
+        }
+        stages.addAll(implicitGroupNames);
+        return new AccessibilityMatrix(species.size(), stages);
+    }
+
+    public int size() {
+        return stages.size();
+    }
+
+    public List<String> getStages() {
+        return stages;
+    }
+
+    public int juvenileStageOf(int speciesId) {
+        return 2 * speciesId;
+    }
+
+    public int adultStageOf(int speciesId) {
+        return 2 * speciesId + 1;
+    }
+
+    public int implicitStageOf(int implicitGroupId) {
+        return 2 * speciesCount + implicitGroupId;
+    }
+
+    public AccessibilityMatrix set(int preyStage, int predatorStage, String coefficient) {
+        checkStage(preyStage);
+        checkStage(predatorStage);
+        TreeMap<Integer, String> coefficients = coefficientsByPrey.get(preyStage);
+        if (coefficients == null) {
+            coefficients = new TreeMap<Integer, String>();
+            coefficientsByPrey.put(preyStage, coefficients);
+        }
+        coefficients.put(predatorStage, coefficient);
+        return this;
+    }
+
+    public String get(int preyStage, int predatorStage) {
+        TreeMap<Integer, String> coefficients = coefficientsByPrey.get(preyStage);
+        String coefficient = coefficients == null ? null : coefficients.get(predatorStage);
+        return coefficient == null ? ZERO : coefficient;
+    }
+
+    public void writeTo(ParamWriter writer) throws IOException {
+        writer.row(false).value("v Prey / Predator >").values(stages);
+        for (int prey = 0; prey < stages.size(); prey++) {
+            writer.row().value(stages.get(prey));
+            TreeMap<Integer, String> coefficients = coefficientsByPrey.get(prey);
+            if (coefficients == null) {
+                writeZeros(writer, stages.size());
+            } else {
+                int predator = 0;
+                for (Map.Entry<Integer, String> coefficient : coefficients.entrySet()) {
+                    writeZeros(writer, coefficient.getKey() - predator);
+                    writer.value(coefficient.getValue());
+                    predator = coefficient.getKey() + 1;
+                }
+                writeZeros(writer, stages.size() - predator);
+            }
+        }
+    }
+
+    private static void writeZeros(ParamWriter writer, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            writer.value(ZERO);
+        }
+    }
+
+    private void checkStage(int stage) {
+        if (stage < 0 || stage >= stages.size()) {
+            throw new IllegalArgumentException("no stage [" + stage + "] in accessibility matrix of [" + stages.size() + "] stages");
+        }
+    }
+}
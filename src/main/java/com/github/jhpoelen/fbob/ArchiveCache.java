@@ -0,0 +1,363 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+// generated archives kept on disk, named by a hash of everything that went into them, and evicted least recently used first
+public class ArchiveCache {
+
+    private static final MetricRegistry.Counter HITS = MetricRegistry.getInstance()
+            .counter("fbob_cache_hits_total", "Lookups answered from a cache, by cache.", "cache", "archives");
+    private static final MetricRegistry.Counter MISSES = MetricRegistry.getInstance()
+            .counter("fbob_cache_misses_total", "Lookups that had to load a value, by cache.", "cache", "archives");
+    private static final MetricRegistry.Counter EVICTIONS = MetricRegistry.getInstance()
+            .counter("fbob_cache_evictions_total", "Entries evicted to stay within the maximum size, by cache.", "cache", "archives");
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DEV_DIR = "dev";
+
+    private static volatile ArchiveCache instance;
+
+    private final File dir;
+    private final long maxBytes;
+
+    // key to archive length, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final ConcurrentMap<String, CompletableFuture<Void>> generating = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    ArchiveCache(File dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        FileUtils.forceMkdir(dir);
+        load();
+    }
+
+    static String dirNameFor(String version, String buildTime, String templateHash) {
+        if (version == null || buildTime == null) {
+            return DEV_DIR;
+        }
+        String hash = StaticArchive.sha256Hex((buildTime + "\n" + templateHash).getBytes(StandardCharsets.UTF_8));
+        return version + "-" + hash.substring(0, 16);
+    }
+
+    // main attributes of the jar a class was loaded from, null when it was loaded from a directory
+    static Attributes manifestOf(Class<?> clazz) throws IOException {
+        CodeSource source = clazz.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null || !"file".equals(source.getLocation().getProtocol())) {
+            return null;
+        }
+        File file = FileUtils.toFile(source.getLocation());
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try (JarFile jar = new JarFile(file)) {
+            Manifest manifest = jar.getManifest();
+            return manifest == null ? null : manifest.getMainAttributes();
+        }
+    }
+
+    // null when disabled with archive.cache.max.bytes=0
+    public static ArchiveCache getInstance() throws IOException {
+        ArchiveCache cache = instance;
+        if (cache == null) {
+            synchronized (ArchiveCache.class) {
+                cache = instance;
+                long maxBytes = Settings.getLong("archive.cache.max.bytes", 256L * 1024 * 1024);
+                if (cache == null && maxBytes > 0) {
+                    File root = new File(Settings.get("archive.cache.dir", new File(System.getProperty("java.io.tmpdir"), "fbob-archives").getPath()));
+                    // archives of the same build and templates can be reused after a restart, those of a local build may have been generated by other code
+                    Attributes manifest = manifestOf(Config.class);
+                    String dirName = dirNameFor(manifest == null ? null : manifest.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                            manifest == null ? null : manifest.getValue("Build-Time"),
+                            StaticArchive.getInstance().getETag());
+                    File dir = new File(root, dirName);
+                    if (DEV_DIR.equals(dirName)) {
+                        FileUtils.deleteDirectory(dir);
+                    }
+                    final ArchiveCache created = new ArchiveCache(dir, maxBytes);
+                    MetricRegistry registry = MetricRegistry.getInstance();
+                    registry.register("fbob_cache_entries", "Entries currently in a cache.", "gauge", new MetricRegistry.Sample() {
+                        @Override
+                        public double value() {
+                            return created.size();
+                        }
+                    }, "cache", "archives");
+                    registry.register("fbob_cache_size_bytes", "Bytes currently held by a cache.", "gauge", new MetricRegistry.Sample() {
+                        @Override
+                        public double value() {
+                            return created.getTotalBytes();
+                        }
+                    }, "cache", "archives");
+                    cache = instance = created;
+                }
+            }
+        }
+        return cache;
+    }
+
+    // the same groups, options and traits always produce the same archive, so their hash names it
+    public static String keyOf(List<String> groupNames,
+                               List<String> implicitGroupNames,
+                               Map<String, Map<String, String>> traits,
+                               boolean sharedMap,
+                               ArchiveFormat format,
+                               Compression compression) {
+        StringBuilder request = new StringBuilder();
+        request.append("format=").append(format.name()).append('\n');
+        request.append("compression=").append(compression.name()).append('\n');
+        request.append("sharedMap=").append(sharedMap).append('\n');
+        for (String groupName : implicitGroupNames) {
+            request.append("implicitGroupName=").append(groupName).append('\n');
+        }
+        for (String groupName : groupNames) {
+            request.append("htlGroupName=").append(groupName).append('\n');
+            Map<String, String> traitsForGroup = traits.get(groupName);
+            if (traitsForGroup != null) {
+                for (Map.Entry<String, String> trait : new TreeMap<String, String>(traitsForGroup).entrySet()) {
+                    request.append(trait.getKey()).append('=').append(trait.getValue()).append('\n');
+                }
+            }
+        }
+        return StaticArchive.sha256Hex(request.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // answers If-None-Match without touching the disk, and generates the archive only when it is not cached yet
+    public Response respond(String key,
+                            StreamingOutput content,
+                            String filename,
+                            String mediaType,
+                            String ifNoneMatch,
+                            String ifRange,
+                            String range) throws IOException {
+        String etag = "\"" + key + "\"";
+        if (ArchiveResponses.matches(ifNoneMatch, etag)) {
+            HITS.inc();
+            return ArchiveResponses.conditional(filename, mediaType, etag, 0, null, ifNoneMatch, ifRange, range);
+        }
+        Entry entry = get(key);
+        if (entry == null) {
+            entry = put(key, content);
+        }
+        Response response = ArchiveResponses.conditional(filename, mediaType, etag, entry.getLength(), entry, ifNoneMatch, ifRange, range);
+        if (!response.hasEntity()) {
+            entry.close();
+        }
+        return response;
+    }
+
+    // the returned entry holds its archive open, so it can be read to the end even if it is evicted meanwhile;
+    // writing it closes it, otherwise it has to be closed
+    public Entry get(String key) throws IOException {
+        Entry entry = open(key);
+        if (entry == null) {
+            MISSES.inc();
+        } else {
+            HITS.inc();
+        }
+        return entry;
+    }
+
+    // concurrent requests for the same archive wait for a single generation; failures reach all of them but are not kept
+    public Entry put(String key, StreamingOutput content) throws IOException {
+        Entry entry = null;
+        while (entry == null) {
+            CompletableFuture<Void> generation = new CompletableFuture<Void>();
+            CompletableFuture<Void> inFlight = generating.putIfAbsent(key, generation);
+            if (inFlight == null) {
+                try {
+                    entry = generate(key, content);
+                    generating.remove(key, generation);
+                    generation.complete(null);
+                } catch (Throwable e) {
+                    generating.remove(key, generation);
+                    generation.completeExceptionally(e);
+                    throw e;
+                }
+            } else {
+                await(key, inFlight);
+                // generated, unless it was evicted right away
+                entry = open(key);
+            }
+        }
+        return entry;
+    }
+
+    private static void await(String key, CompletableFuture<Void> generation) throws IOException {
+        try {
+            generation.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException("failed to generate archive [" + key + "]", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for archive [" + key + "]", e);
+        }
+    }
+
+    // written next to its final name and moved in place, so readers never see a partial archive
+    private Entry generate(String key, StreamingOutput content) throws IOException {
+        File tmp = File.createTempFile("archive-", TEMP_SUFFIX, dir);
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+                content.write(os);
+            }
+            File file = fileFor(key);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // opened before it can be evicted
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long length = channel.size();
+            add(key, length);
+            return new Entry(file, channel, length);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    private Entry open(String key) throws IOException {
+        Long length;
+        synchronized (this) {
+            length = entries.get(key);
+        }
+        if (length == null) {
+            return null;
+        }
+        File file = fileFor(key);
+        try {
+            return new Entry(file, FileChannel.open(file.toPath(), StandardOpenOption.READ), length);
+        } catch (NoSuchFileException e) {
+            // evicted since
+            return null;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void add(String key, long length) {
+        Long previous = entries.put(key, length);
+        totalBytes += length - (previous == null ? 0 : previous);
+        // the newest archive stays, even when it alone exceeds the limit, so it can still be served
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1) {
+            Map.Entry<String, Long> evicted = eldest.next();
+            totalBytes -= evicted.getValue();
+            eldest.remove();
+            // open readers keep reading an unlinked file
+            FileUtils.deleteQuietly(fileFor(evicted.getKey()));
+            EVICTIONS.inc();
+        }
+    }
+
+    private void load() {
+        File[] files = dir.listFiles();
+        List<File> archives = new ArrayList<File>();
+        for (File file : files == null ? new File[0] : files) {
+            if (StringUtils.endsWith(file.getName(), TEMP_SUFFIX)) {
+                FileUtils.deleteQuietly(file);
+            } else if (file.isFile()) {
+                archives.add(file);
+            }
+        }
+        File[] byAge = archives.toArray(new File[archives.size()]);
+        Arrays.sort(byAge, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File archive : byAge) {
+            add(archive.getName(), archive.length());
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key);
+    }
+
+    public static class Entry implements ArchiveResponses.RangeWriter, Closeable {
+        private final File file;
+        private final FileChannel channel;
+        private final long length;
+
+        Entry(File file, FileChannel channel, long length) {
+            this.file = file;
+            this.channel = channel;
+            this.length = length;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        // jersey only hands out an OutputStream, so this is as close to sendfile as it gets: the channel moves the requested range in chunks
+        @Override
+        public void write(OutputStream os, long offset, long length) throws IOException {
+            try {
+                WritableByteChannel target = Channels.newChannel(os);
+                long position = offset;
+                long end = offset + length;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new EOFException("archive [" + file.getName() + "] ended at [" + position + "] bytes, expected [" + end + "]");
+                    }
+                    position += transferred;
+                }
+            } finally {
+                close();
+            }
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
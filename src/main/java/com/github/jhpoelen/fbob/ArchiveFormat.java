@@ -0,0 +1,68 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public enum ArchiveFormat {
+    ZIP("application/zip", "zip") {
+        @Override
+        ArchiveStreamFactory open(OutputStream os, Compression compression) {
+            return new ZipStreamFactory(os, compression, Settings.getBoolean("archive.store.binary", false));
+        }
+    },
+    TAR("application/x-tar", "tar") {
+        @Override
+        ArchiveStreamFactory open(OutputStream os, Compression compression) {
+            return new TarStreamFactory(os);
+        }
+    },
+    TAR_GZ("application/gzip", "tar.gz") {
+        @Override
+        ArchiveStreamFactory open(OutputStream os, final Compression compression) throws IOException {
+            return new TarStreamFactory(new GZIPOutputStream(os, 64 * 1024) {{
+                def.setLevel(compression.getLevel());
+            }});
+        }
+    };
+
+    // entries carry a fixed time (2016-01-01T00:00:00Z) rather than the time of the request, so equal requests give equal bytes
+    static final long ENTRY_MODIFIED_MILLIS = 1451606400000L;
+
+    private final String mediaType;
+    private final String extension;
+
+    ArchiveFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String filenameFor(String basename) {
+        return basename + "." + extension;
+    }
+
+    abstract ArchiveStreamFactory open(OutputStream os, Compression compression) throws IOException;
+
+    public static ArchiveFormat parse(String name) {
+        String format = StringUtils.lowerCase(StringUtils.trim(name));
+        if (StringUtils.equals(format, "tgz")) {
+            format = TAR_GZ.getExtension();
+        }
+        for (ArchiveFormat archiveFormat : values()) {
+            if (StringUtils.equals(archiveFormat.getExtension(), format)) {
+                return archiveFormat;
+            }
+        }
+        throw new IllegalArgumentException("unknown archive format [" + name + "], expected one of zip, tar or tar.gz");
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class ArchiveResponses {
+
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String IF_RANGE = "If-Range";
+    public static final String RANGE = "Range";
+
+    interface RangeWriter {
+        void write(OutputStream os, long offset, long length) throws IOException;
+    }
+
+    public static Response conditional(final String filename,
+                                       final String mediaType,
+                                       final String etag,
+                                       final long length,
+                                       final RangeWriter writer,
+                                       final String ifNoneMatch,
+                                       final String ifRange,
+                                       final String rangeHeader) {
+        Response.ResponseBuilder builder;
+        if (matches(ifNoneMatch, etag)) {
+            builder = Response.notModified();
+        } else {
+            ByteRange range = (ifRange == null || StringUtils.equals(ifRange, etag))
+                    ? ByteRange.parse(rangeHeader, length)
+                    : null;
+            if (range == ByteRange.UNSATISFIABLE) {
+                builder = Response
+                        .status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(CONTENT_RANGE, "bytes */" + length);
+            } else if (range == null) {
+                builder = Response
+                        .ok(streamOf(writer, 0, length))
+                        .header(HttpHeaders.CONTENT_LENGTH, length);
+            } else {
+                builder = Response
+                        .status(Response.Status.PARTIAL_CONTENT)
+                        .entity(streamOf(writer, range.getOffset(), range.getLength()))
+                        .header(HttpHeaders.CONTENT_LENGTH, range.getLength())
+                        .header(CONTENT_RANGE, range.contentRange(length));
+            }
+            builder.type(mediaType).header("Content-Disposition", "attachment; filename=" + filename);
+        }
+        return builder
+                .header(HttpHeaders.ETAG, etag)
+                .header(ACCEPT_RANGES, "bytes")
+                .build();
+    }
+
+    public static boolean matches(String ifNoneMatch, String etag) {
+        boolean matches = false;
+        if (StringUtils.isNotBlank(ifNoneMatch)) {
+            for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+                String tag = StringUtils.removeStart(StringUtils.trim(candidate), "W/");
+                if (StringUtils.equals(tag, "*") || StringUtils.equals(tag, etag)) {
+                    matches = true;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static StreamingOutput streamOf(RangeWriter writer, long offset, long length) {
+        return new RangeOutput(writer, offset, length);
+    }
+
+    // closes what the writer holds open when the response ends up not being written, e.g. after a timeout
+    static class RangeOutput implements StreamingOutput, Closeable {
+        private final RangeWriter writer;
+        private final long offset;
+        private final long length;
+
+        RangeOutput(RangeWriter writer, long offset, long length) {
+            this.writer = writer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void write(OutputStream os) throws IOException, WebApplicationException {
+            writer.write(os, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer instanceof Closeable) {
+                ((Closeable) writer).close();
+            }
+        }
+    }
+}
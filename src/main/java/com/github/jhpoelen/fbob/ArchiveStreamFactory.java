@@ -0,0 +1,12 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.Closeable;
+
+// a StreamFactory writing into a single archive, which is completed on close
+interface ArchiveStreamFactory extends StreamFactory, Closeable {
+
+    // called instead of completing the archive when generating it failed, e.g. because the client went away;
+    // releases what the archive holds on to, after which close only closes the underlying stream
+    default void abort() {
+    }
+}
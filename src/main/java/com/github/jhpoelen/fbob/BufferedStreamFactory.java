@@ -0,0 +1,77 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+// collects generated files in memory, in the order they were created, so they can be written out later
+public class BufferedStreamFactory implements StreamFactory {
+
+    private final Set<String> excluded;
+    private final List<Buffer> buffers = new ArrayList<Buffer>();
+
+    public BufferedStreamFactory() {
+        this(Collections.<String>emptySet());
+    }
+
+    // excluded files are dropped, e.g. because they are written elsewhere
+    public BufferedStreamFactory(Set<String> excluded) {
+        this.excluded = excluded;
+    }
+
+    @Override
+    public OutputStream outputStreamFor(String name) throws IOException {
+        if (excluded.contains(name)) {
+            return NullOutputStream.NULL_OUTPUT_STREAM;
+        }
+        Buffer buffer = new Buffer(name, null);
+        buffers.add(buffer);
+        return buffer.bytes;
+    }
+
+    @Override
+    public void fromTemplate(String name, ResourceCatalog.Entry template) throws IOException {
+        if (!excluded.contains(name)) {
+            buffers.add(new Buffer(name, template));
+        }
+    }
+
+    public void writeTo(StreamFactory factory, String prefix) throws IOException {
+        for (Buffer buffer : buffers) {
+            if (buffer.template == null) {
+                // closed only once written, so a failure does not publish a partial file
+                OutputStream os = factory.outputStreamFor(prefix + buffer.name);
+                buffer.bytes.writeTo(os);
+                os.close();
+            } else {
+                factory.fromTemplate(prefix + buffer.name, buffer.template);
+            }
+        }
+    }
+
+    public List<String> getNames() {
+        List<String> names = new ArrayList<String>(buffers.size());
+        for (Buffer buffer : buffers) {
+            names.add(buffer.name);
+        }
+        return names;
+    }
+
+    private static class Buffer {
+        private final String name;
+        private final ResourceCatalog.Entry template;
+        private final ByteArrayOutputStream bytes;
+
+        Buffer(String name, ResourceCatalog.Entry template) {
+            this.name = name;
+            this.template = template;
+            this.bytes = template == null ? new ByteArrayOutputStream(1024) : null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+public class ByteRange {
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final long offset;
+    private final long length;
+
+    public ByteRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String contentRange(long total) {
+        return "bytes " + offset + "-" + (offset + length - 1) + "/" + total;
+    }
+
+    // single ranges only: absent, malformed or multi-range headers yield null so the full entity is served
+    public static ByteRange parse(String header, long total) {
+        if (StringUtils.isBlank(header) || !StringUtils.startsWith(header, "bytes=")) {
+            return null;
+        }
+        String spec = StringUtils.trim(StringUtils.substringAfter(header, "bytes="));
+        if (StringUtils.contains(spec, ",")) {
+            return null;
+        }
+        String first = StringUtils.trim(StringUtils.substringBefore(spec, "-"));
+        String last = StringUtils.trim(StringUtils.substringAfter(spec, "-"));
+        if (!StringUtils.contains(spec, "-")
+                || (first.isEmpty() && last.isEmpty())
+                || !(first.isEmpty() || StringUtils.isNumeric(first))
+                || !(last.isEmpty() || StringUtils.isNumeric(last))) {
+            return null;
+        }
+
+        ByteRange range;
+        try {
+            if (first.isEmpty()) {
+                long suffix = Math.min(Long.parseLong(last), total);
+                range = suffix == 0 ? UNSATISFIABLE : new ByteRange(total - suffix, suffix);
+            } else {
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? total - 1 : Long.parseLong(last);
+                if (!last.isEmpty() && end < start) {
+                    // syntactically invalid (RFC 7233 2.1), so the header is ignored rather than unsatisfiable
+                    range = null;
+                } else {
+                    end = Math.min(end, total - 1);
+                    range = start >= total ? UNSATISFIABLE : new ByteRange(start, end - start + 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            range = null;
+        }
+        return range;
+    }
+}
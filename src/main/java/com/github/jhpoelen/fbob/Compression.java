@@ -0,0 +1,31 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.zip.Deflater;
+
+public enum Compression {
+    STORE(Deflater.NO_COMPRESSION),
+    FAST(Deflater.BEST_SPEED),
+    DEFAULT(Deflater.DEFAULT_COMPRESSION),
+    MAX(Deflater.BEST_COMPRESSION);
+
+    private final int level;
+
+    Compression(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public static Compression parse(String name) {
+        for (Compression compression : values()) {
+            if (StringUtils.equalsIgnoreCase(compression.name(), StringUtils.trim(name))) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression [" + name + "], expected one of store, fast, default or max");
+    }
+}
@@ -2,117 +2,267 @@ package com.github.jhpoelen.fbob;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.reflections.Reflections;
-import org.reflections.scanners.ResourcesScanner;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 @Path("osmose_config.zip")
 public class Config {
 
     public static final String OSMOSE_CONFIG = "osmose_config";
 
+    private static final MetricRegistry.Histogram TRAITS_TIMER = MetricRegistry.getInstance()
+            .timer("fbob_generation_stage_duration_seconds", "Time spent per config generation stage, from trait lookups to rendering files.", "stage", "traits");
+
+    public static final List<String> LTL_GROUP_NAMES = Arrays.asList(
+            "SmallPhytoplankton",
+            "Diatoms",
+            "Microzooplankton",
+            "Mesozooplankton",
+            "Meiofauna",
+            "SmallInfauna",
+            "SmallMobileEpifauna",
+            "Bivalves",
+            "EchinodermsAndLargeGastropods"
+    );
+
     static public Set<String> getResources() {
-        Reflections reflections = new Reflections(new ConfigurationBuilder()
-                .setUrls(ClasspathHelper.forPackage("com.github.jhpoelen.fbob." + OSMOSE_CONFIG))
-                .setScanners(new ResourcesScanner()));
-        return reflections.getResources(Pattern.compile(".*\\.csv"));
+        Set<String> resources = new TreeSet<String>();
+        for (ResourceCatalog.Entry entry : ResourceCatalog.getInstance().getEntries()) {
+            if (StringUtils.endsWith(entry.getName(), ".csv")) {
+                resources.add(entry.getResource());
+            }
+        }
+        return resources;
     }
 
     public static void toZipOutputStream(Set<String> resources, OutputStream out) throws IOException {
-        ZipOutputStream zos = new ZipOutputStream(out);
-        for (String resource : resources) {
-            String resourceName = StringUtils.substringAfter(resource, OSMOSE_CONFIG + "/");
-            ZipEntry e = new ZipEntry(resourceName);
-            zos.putNextEntry(e);
-            IOUtils.write(IOUtils.toByteArray(Config.class.getResourceAsStream("/" + resource)), zos);
-        }
-        close(zos);
+        toArchive(resources, ArchiveFormat.ZIP.open(out, Compression.DEFAULT));
     }
 
-    public Response configArchive() {
-        StreamingOutput stream = new StreamingOutput() {
-            @Override
-            public void write(OutputStream os) throws IOException, WebApplicationException {
-                toZipOutputStream(getResources(), os);
+    public static void toArchive(Set<String> resources, ArchiveStreamFactory factory) throws IOException {
+        ResourceCatalog catalog = ResourceCatalog.getInstance();
+        try {
+            for (String resource : resources) {
+                String resourceName = StringUtils.substringAfter(resource, OSMOSE_CONFIG + "/");
+                if (catalog.contains(resourceName)) {
+                    factory.fromTemplate(resourceName, catalog.get(resourceName));
+                } else {
+                    try (InputStream is = Config.class.getResourceAsStream("/" + resource)) {
+                        OutputStream os = factory.outputStreamFor(resourceName);
+                        IOUtils.copy(is, os);
+                        os.close();
+                    }
+                }
             }
-        };
+        } catch (Throwable e) {
+            factory.abort();
+            throw e;
+        } finally {
+            factory.close();
+        }
+    }
 
-        return Response
-                .ok(stream)
-                .header("Content-Disposition", "attachment; filename=osmose_config.zip")
-                .build();
+    public Response configArchive() throws IOException {
+        return configArchive(null, null, null);
+    }
+
+    public Response configArchive(String ifNoneMatch, String ifRange, String range) throws IOException {
+        return configArchive(ArchiveFormat.ZIP, Compression.DEFAULT, ifNoneMatch, ifRange, range);
+    }
+
+    public Response configArchive(ArchiveFormat format, Compression compression, String ifNoneMatch, String ifRange, String range) throws IOException {
+        StaticArchive archive = StaticArchive.getInstance(format, compression);
+        return ArchiveResponses.conditional(format.filenameFor(OSMOSE_CONFIG),
+                format.getMediaType(),
+                archive.getETag(),
+                archive.getLength(),
+                archive,
+                ifNoneMatch,
+                ifRange,
+                range);
     }
 
     @GET
-    @Produces("application/zip")
-    public Response configTemplate(@QueryParam("htlGroupName") final List<String> htlGroupNames) throws IOException {
-        Response response;
+    @Produces({"application/zip", "application/x-tar", "application/gzip"})
+    public void configTemplate(@Suspended final AsyncResponse async,
+                               @QueryParam("htlGroupName") final List<String> htlGroupNames,
+                               @QueryParam("sharedMap") final Boolean sharedMap,
+                               @QueryParam("format") final String formatName,
+                               @QueryParam("compression") final String compressionName,
+                               @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch,
+                               @HeaderParam(ArchiveResponses.IF_RANGE) final String ifRange,
+                               @HeaderParam(ArchiveResponses.RANGE) final String range) throws IOException {
+        final ArchiveFormat format = formatFor(formatName);
+        final Compression compression = compressionFor(compressionName);
+
         if (htlGroupNames == null || htlGroupNames.size() == 0) {
-            response = configArchive();
+            async.resume(configArchive(format, compression, ifNoneMatch, ifRange, range));
         } else {
-            List<String> ltlGroupNames = Arrays.asList(
-                    "SmallPhytoplankton",
-                    "Diatoms",
-                    "Microzooplankton",
-                    "Mesozooplankton",
-                    "Meiofauna",
-                    "SmallInfauna",
-                    "SmallMobileEpifauna",
-                    "Bivalves",
-                    "EchinodermsAndLargeGastropods"
-            );
-            final List<ValueFactory> valueFactories = Arrays.asList(
-                    ConfigUtil.getFishbaseValueFactory(),
-                    ConfigUtil.getDefaultValueFactory());
-            final ValueFactory valueFactory = ConfigUtil.getProxyValueFactory(valueFactories);
-
-            response = Response
-                    .ok(asStream(htlGroupNames, ltlGroupNames, valueFactory))
-                    .header("Content-Disposition", "attachment; filename=osmose_config.zip")
-                    .build();
+            final boolean shared = sharedMap == null ? Settings.getBoolean("maps.shared", false) : sharedMap;
+            respondWithTraits(async, htlGroupNames, new TraitsResponder() {
+                @Override
+                public Response respond(Map<String, Map<String, String>> traits) throws IOException {
+                    final List<ValueFactory> valueFactories = Arrays.asList(
+                            ConfigUtil.getFishbaseValueFactory(traits),
+                            ConfigUtil.getDefaultValueFactory());
+                    final ValueFactory valueFactory = ConfigUtil.getProxyValueFactory(valueFactories);
+                    StreamingOutput archive = asStream(htlGroupNames, LTL_GROUP_NAMES, valueFactory, shared, format, compression);
+
+                    ArchiveCache cache = ArchiveCache.getInstance();
+                    if (cache == null) {
+                        return Response
+                                .ok(archive, format.getMediaType())
+                                .header("Content-Disposition", "attachment; filename=" + format.filenameFor(OSMOSE_CONFIG))
+                                .build();
+                    }
+                    return cache.respond(ArchiveCache.keyOf(htlGroupNames, LTL_GROUP_NAMES, traits, shared, format, compression),
+                            archive,
+                            format.filenameFor(OSMOSE_CONFIG),
+                            format.getMediaType(),
+                            ifNoneMatch,
+                            ifRange,
+                            range);
+                }
+            });
         }
-        return response;
+    }
+
+    interface TraitsResponder {
+        Response respond(Map<String, Map<String, String>> traits) throws IOException;
+    }
+
+    // traits are resolved on the io pool without holding a request thread, then the archive is streamed from a
+    // response thread while it is generated on the cpu pool, so slow clients never hold up generation of other archives;
+    // a permit is held from start to the last byte, or until the request times out
+    static void respondWithTraits(final AsyncResponse async, final List<String> groupNames, final TraitsResponder responder) {
+        final StreamPermits.Permit permit = StreamPermits.getInstance().acquire();
+        async.setTimeoutHandler(new TimeoutHandler() {
+            @Override
+            public void handleTimeout(AsyncResponse asyncResponse) {
+                if (asyncResponse.resume(new WebApplicationException(Response.Status.GATEWAY_TIMEOUT))) {
+                    permit.release();
+                }
+            }
+        });
+        async.setTimeout(Settings.getLong("request.timeout.millis", 60000), TimeUnit.MILLISECONDS);
+
+        final long start = System.nanoTime();
+        // species in the trait snapshot, if any, are answered from it and only the others are looked up on FishBase
+        TraitSnapshot snapshot = TraitSnapshot.current();
+        final Map<String, Map<String, String>> known = snapshot == null
+                ? new HashMap<String, Map<String, String>>()
+                : snapshot.getAll(groupNames);
+        List<String> unknown = new ArrayList<String>();
+        for (String groupName : groupNames) {
+            if (!known.containsKey(groupName)) {
+                unknown.add(groupName);
+            }
+        }
+        TraitCache.getInstance().getAllAsync(unknown,
+                WorkerPools.io(),
+                Settings.getLong("traits.lookup.timeout.millis", 10000),
+                Settings.getLong("traits.prefetch.timeout.millis", 30000))
+                .whenCompleteAsync(new BiConsumer<Map<String, Map<String, String>>, Throwable>() {
+                    @Override
+                    public void accept(Map<String, Map<String, String>> traits, Throwable failure) {
+                        TRAITS_TIMER.observe(System.nanoTime() - start);
+                        try {
+                            if (failure == null) {
+                                Map<String, Map<String, String>> allTraits = new HashMap<String, Map<String, String>>(traits);
+                                allTraits.putAll(known);
+                                // resuming writes the entity on this thread, so the permit is only returned once it is streamed
+                                Response response = responder.respond(allTraits);
+                                if (!async.resume(response) && response.getEntity() instanceof Closeable) {
+                                    // timed out meanwhile, so the entity is never written
+                                    ((Closeable) response.getEntity()).close();
+                                }
+                            } else {
+                                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                                async.resume(new WebApplicationException(cause, cause instanceof TimeoutException
+                                        ? Response.Status.GATEWAY_TIMEOUT
+                                        : Response.Status.BAD_GATEWAY));
+                            }
+                        } catch (Throwable e) {
+                            async.resume(e);
+                        } finally {
+                            permit.release();
+                        }
+                    }
+                }, WorkerPools.responses());
+    }
+
+    static ArchiveFormat formatFor(String formatName) {
+        try {
+            return ArchiveFormat.parse(formatName == null ? Settings.get("archive.format", "zip") : formatName);
+        } catch (IllegalArgumentException e) {
+            throw badRequest(e);
+        }
+    }
+
+    static Compression compressionFor(String compressionName) {
+        try {
+            return Compression.parse(compressionName == null ? Settings.get("archive.compression", "default") : compressionName);
+        } catch (IllegalArgumentException e) {
+            throw badRequest(e);
+        }
+    }
+
+    static WebApplicationException badRequest(Exception e) {
+        return new WebApplicationException(e, Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).type("text/plain").build());
     }
 
     public static StreamingOutput asStream(final List<String> groupNames, final List<String> implicitGroupNames, final ValueFactory valueFactory) {
+        return asStream(groupNames, implicitGroupNames, valueFactory, false);
+    }
+
+    public static StreamingOutput asStream(final List<String> groupNames, final List<String> implicitGroupNames, final ValueFactory valueFactory, final boolean sharedMap) {
+        return asStream(groupNames, implicitGroupNames, valueFactory, sharedMap, ArchiveFormat.ZIP, Compression.DEFAULT);
+    }
+
+    public static StreamingOutput asStream(final List<String> groupNames, final List<String> implicitGroupNames, final ValueFactory valueFactory, final boolean sharedMap, final ArchiveFormat format, final Compression compression) {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream os) throws IOException, WebApplicationException {
-                ZipOutputStream zos = new ZipOutputStream(os);
-                ConfigUtil.generateConfigFor(groupNames, implicitGroupNames, new StreamFactory() {
-                    @Override
-                    public OutputStream outputStreamFor(String name) throws IOException {
-                        ZipEntry e = new ZipEntry(name);
-                        zos.putNextEntry(e);
-                        return zos;
+                try (ArchiveStreamFactory factory = format.open(os, compression)) {
+                    try {
+                        SpeciesTable species = SpeciesTable.of(groupNames);
+                        if (WorkerPools.cpuThreads() > 1) {
+                            ConfigUtil.generateConfigFor(species, implicitGroupNames, factory, valueFactory, sharedMap, "", WorkerPools.cpu());
+                        } else {
+                            ConfigUtil.generateConfigFor(species, implicitGroupNames, factory, valueFactory, sharedMap);
+                        }
+                    } catch (Throwable e) {
+                        factory.abort();
+                        throw e;
                     }
-                }, valueFactory);
-                close(zos);
+                }
             }
         };
     }
-
-    private static void close(ZipOutputStream zos) throws IOException {
-        zos.closeEntry();
-        zos.flush();
-        zos.close();
-    }
-
 }
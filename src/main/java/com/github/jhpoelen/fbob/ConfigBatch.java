@@ -0,0 +1,240 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+@Path("osmose_configs")
+public class ConfigBatch {
+
+    public static final String OSMOSE_CONFIGS = "osmose_configs";
+
+    @POST
+    @Consumes("application/json")
+    @Produces({"application/zip", "application/x-tar", "application/gzip"})
+    public void batchFromJson(@Suspended final AsyncResponse async,
+                              InputStream scenarios,
+                              @QueryParam("format") final String formatName,
+                              @QueryParam("compression") final String compressionName) throws IOException {
+        List<Scenario> parsed;
+        try {
+            parsed = Scenario.fromJson(scenarios);
+        } catch (IllegalArgumentException | IOException e) {
+            throw Config.badRequest(e);
+        }
+        batch(async, parsed, formatName, compressionName);
+    }
+
+    @POST
+    @Consumes("text/csv")
+    @Produces({"application/zip", "application/x-tar", "application/gzip"})
+    public void batchFromCsv(@Suspended final AsyncResponse async,
+                             InputStream scenarios,
+                             @QueryParam("format") final String formatName,
+                             @QueryParam("compression") final String compressionName) throws IOException {
+        List<Scenario> parsed;
+        try {
+            parsed = Scenario.fromCsv(scenarios);
+        } catch (IllegalArgumentException | IOException e) {
+            // a body that cannot be read or parsed is the client's to fix
+            throw Config.badRequest(e);
+        }
+        batch(async, parsed, formatName, compressionName);
+    }
+
+    void batch(AsyncResponse async, final List<Scenario> scenarios, String formatName, String compressionName) {
+        final ArchiveFormat format = Config.formatFor(formatName);
+        final Compression compression = Config.compressionFor(compressionName);
+        try {
+            checkScenarios(scenarios);
+        } catch (IllegalArgumentException e) {
+            throw Config.badRequest(e);
+        }
+
+        Set<String> groupNames = new LinkedHashSet<String>();
+        for (Scenario scenario : scenarios) {
+            groupNames.addAll(scenario.htlGroupName);
+        }
+        Config.respondWithTraits(async, new ArrayList<String>(groupNames), new Config.TraitsResponder() {
+            @Override
+            public Response respond(Map<String, Map<String, String>> traits) {
+                return Response
+                        .ok(asStream(scenarios, traits, format, compression), format.getMediaType())
+                        .header("Content-Disposition", "attachment; filename=" + format.filenameFor(OSMOSE_CONFIGS))
+                        .build();
+            }
+        });
+    }
+
+    // each scenario gets its own directory, next to a single copy of the static files they all share
+    public static StreamingOutput asStream(final List<Scenario> scenarios,
+                                           final Map<String, Map<String, String>> traits,
+                                           final ArchiveFormat format,
+                                           final Compression compression) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                ExecutorService pool = WorkerPools.cpu();
+                int window = Settings.getInt("batch.window", 2 * WorkerPools.cpuThreads());
+                Deque<FutureTask<BufferedStreamFactory>> pending = new ArrayDeque<FutureTask<BufferedStreamFactory>>();
+                Deque<String> pendingNames = new ArrayDeque<String>();
+                try (ArchiveStreamFactory archive = format.open(os, compression)) {
+                    try {
+                        for (String template : ConfigUtil.STATIC_TEMPLATES) {
+                            ConfigUtil.generateFromTemplate(archive, template);
+                        }
+                        for (Scenario scenario : scenarios) {
+                            FutureTask<BufferedStreamFactory> task = new FutureTask<BufferedStreamFactory>(render(scenario, traits));
+                            pending.add(task);
+                            pool.execute(task);
+                            pendingNames.add(scenario.name);
+                            if (pending.size() >= window) {
+                                drain(pending.poll(), pendingNames.poll(), archive);
+                            }
+                        }
+                        while (!pending.isEmpty()) {
+                            drain(pending.poll(), pendingNames.poll(), archive);
+                        }
+                    } catch (Throwable e) {
+                        archive.abort();
+                        throw e;
+                    }
+                } finally {
+                    for (FutureTask<BufferedStreamFactory> task : pending) {
+                        task.cancel(true);
+                    }
+                }
+            }
+        };
+    }
+
+    static Callable<BufferedStreamFactory> render(final Scenario scenario, final Map<String, Map<String, String>> traits) {
+        return new Callable<BufferedStreamFactory>() {
+            @Override
+            public BufferedStreamFactory call() throws Exception {
+                ValueFactory valueFactory = ConfigUtil.getProxyValueFactory(Arrays.asList(
+                        scenario.getOverrideValueFactory(),
+                        ConfigUtil.getFishbaseValueFactory(traits),
+                        ConfigUtil.getDefaultValueFactory()));
+                BufferedStreamFactory buffer = new BufferedStreamFactory(new HashSet<String>(ConfigUtil.STATIC_TEMPLATES));
+                ConfigUtil.generateConfigFor(SpeciesTable.of(scenario.htlGroupName), Config.LTL_GROUP_NAMES, buffer, valueFactory, false, "../");
+                return buffer;
+            }
+        };
+    }
+
+    // writes each scenario into its own directory below root, e.g. to stage cluster jobs; scenarios are rendered
+    // and written on the cpu pool, so files of different scenarios go to disk in parallel
+    public static void toDirectory(final List<Scenario> scenarios,
+                                   final Map<String, Map<String, String>> traits,
+                                   File root) throws IOException {
+        ExecutorService pool = WorkerPools.cpu();
+        int window = Settings.getInt("batch.window", 2 * WorkerPools.cpuThreads());
+        Deque<FutureTask<BufferedStreamFactory>> pending = new ArrayDeque<FutureTask<BufferedStreamFactory>>();
+        Deque<String> pendingNames = new ArrayDeque<String>();
+        try (final StreamFactoryImpl dir = new StreamFactoryImpl(root)) {
+            try {
+                for (String template : ConfigUtil.STATIC_TEMPLATES) {
+                    ConfigUtil.generateFromTemplate(dir, template);
+                }
+                for (final Scenario scenario : scenarios) {
+                    final Callable<BufferedStreamFactory> render = render(scenario, traits);
+                    FutureTask<BufferedStreamFactory> task = new FutureTask<BufferedStreamFactory>(new Callable<BufferedStreamFactory>() {
+                        @Override
+                        public BufferedStreamFactory call() throws Exception {
+                            BufferedStreamFactory rendered = render.call();
+                            rendered.writeTo(dir, scenario.name + "/");
+                            return rendered;
+                        }
+                    });
+                    pending.add(task);
+                    pool.execute(task);
+                    pendingNames.add(scenario.name);
+                    if (pending.size() >= window) {
+                        await(pending.poll(), pendingNames.poll());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    await(pending.poll(), pendingNames.poll());
+                }
+            } catch (Throwable e) {
+                // files of scenarios still being written are discarded rather than published
+                dir.abort();
+                throw e;
+            }
+        } finally {
+            for (FutureTask<BufferedStreamFactory> task : pending) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static void drain(FutureTask<BufferedStreamFactory> rendered, String scenarioName, StreamFactory archive) throws IOException {
+        await(rendered, scenarioName).writeTo(archive, scenarioName + "/");
+    }
+
+    private static <T> T await(FutureTask<T> task, String scenarioName) throws IOException {
+        try {
+            // runs on this thread if no worker got to it yet, e.g. when this thread is the only cpu worker
+            task.run();
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating scenario [" + scenarioName + "]", e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to generate scenario [" + scenarioName + "]", e.getCause());
+        }
+    }
+
+    static void checkScenarios(List<Scenario> scenarios) {
+        if (scenarios.isEmpty()) {
+            throw new IllegalArgumentException("no scenarios provided");
+        }
+        int maxScenarios = Settings.getInt("batch.max.scenarios", 1000);
+        if (scenarios.size() > maxScenarios) {
+            throw new IllegalArgumentException("[" + scenarios.size() + "] scenarios exceed the limit of [" + maxScenarios + "]");
+        }
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < scenarios.size(); i++) {
+            Scenario scenario = scenarios.get(i);
+            if (StringUtils.isBlank(scenario.name)) {
+                scenario.name = "scenario" + i;
+            }
+            if (!scenario.name.matches("[A-Za-z0-9_\\-][A-Za-z0-9_.\\-]*")) {
+                throw new IllegalArgumentException("scenario name [" + scenario.name + "] should only contain letters, digits, '.', '_' or '-'");
+            }
+            if (!names.add(scenario.name)) {
+                throw new IllegalArgumentException("duplicate scenario name [" + scenario.name + "]");
+            }
+            if (scenario.htlGroupName == null || scenario.htlGroupName.isEmpty()) {
+                throw new IllegalArgumentException("scenario [" + scenario.name + "] has no htlGroupName");
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.IOException;
+
+interface ConfigGenerator {
+    void generate(StreamFactory factory) throws IOException;
+}
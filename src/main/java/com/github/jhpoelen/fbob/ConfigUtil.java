@@ -1,18 +1,24 @@
 package com.github.jhpoelen.fbob;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 
 public class ConfigUtil {
     public static final List<String> YEAR_PARTS = Arrays.asList("0.0", "0.083333336", "0.16666667", "0.25", "0.33333334", "0.41666666", "0.5", "0.5833333", "0.6666667", "0.75", "0.8333333", "0.9166667");
@@ -93,34 +99,56 @@ public class ConfigUtil {
             "output.distrib.bySize.max;205;;\n" +
             "output.distrib.bySize.incr;10;;";
 
+    private static final byte[] OUTPUT_DEFAULTS_BYTES = OUTPUT_DEFAULTS.getBytes(StandardCharsets.UTF_8);
+
+    public static final String MAP_TEMPLATE = "maps/Amberjacks_1.csv";
+
+    public static final String SHARED_MAP_NAME = "maps/shared-map.csv";
+
+    // identical for every configuration, and only referenced from osm_all-parameters.csv or from each other
+    public static final List<String> STATIC_TEMPLATES = Arrays.asList("osm_param-mpa.csv", "osm_param-ltl.csv", "osm_param-grid.csv", "osm_ltlbiomass.nc", "grid-mask.csv");
+
+    public static final List<String> TEMPLATES = templates();
+
+    private static final ConcurrentMap<String, MetricRegistry.Histogram> STAGE_TIMERS = new ConcurrentHashMap<String, MetricRegistry.Histogram>();
+
+    private static final List<String> SEASONS = Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11");
+
+    // the static templates and the map that species maps are copied from
+    private static List<String> templates() {
+        List<String> templates = new ArrayList<String>(STATIC_TEMPLATES);
+        templates.add(MAP_TEMPLATE);
+        return Collections.unmodifiableList(templates);
+    }
+
     public static void writeLine(OutputStream os, List<String> values, boolean leadingNewline) throws IOException {
-        List<String> escapedValues = new ArrayList<String>();
-        for (String value : values) {
-            escapedValues.add(StringEscapeUtils.escapeCsv(value));
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(leadingNewline).values(values);
         }
-        String row = StringUtils.join(escapedValues, ";");
-        String line = leadingNewline ? ("\n" + row) : row;
-        IOUtils.copy(IOUtils.toInputStream(line, "UTF-8"), os);
     }
 
     public static void writeLine(OutputStream os, List<String> values) throws IOException {
         writeLine(os, values, true);
     }
 
-    public static void generateSeasonalReproductionFor(List<String> groupNames, StreamFactory factory) throws IOException {
+    public static void generateSeasonalReproductionFor(SpeciesTable species, StreamFactory factory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-reproduction.csv");
-        for (int i = 0; i < groupNames.size(); i++) {
-            String reproductionFilename = reproductionFilename(i);
-            String paramName = "reproduction.season.file.sp" + i;
-            writeLine(os, Arrays.asList(paramName, reproductionFilename), i > 0);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            for (int i = 0; i < species.size(); i++) {
+                writer.row(i > 0).value("reproduction.season.file.sp", i).value(reproductionFilename(i));
+            }
         }
-
-        for (int i = 0; i < groupNames.size(); i++) {
-            OutputStream reprodOs = factory.outputStreamFor(reproductionFilename(i));
-            writeLine(reprodOs, Arrays.asList("Time (year)", groupNames.get(i)), false);
-            for (String yearPart : YEAR_PARTS) {
-                writeLine(reprodOs, Arrays.asList(yearPart, "0.0"));
+        os.close();
+
+        for (int i = 0; i < species.size(); i++) {
+            OutputStream season = factory.outputStreamFor(reproductionFilename(i));
+            try (ParamWriter writer = new ParamWriter(season)) {
+                writer.row(false).value("Time (year)").value(species.nameOf(i));
+                for (String yearPart : YEAR_PARTS) {
+                    writer.row().value(yearPart).value("0.0");
+                }
             }
+            season.close();
         }
     }
 
@@ -128,154 +156,180 @@ public class ConfigUtil {
         return "reproduction-seasonality-sp" + i + ".csv";
     }
 
-    public static void generateFishingParametersFor(List<String> groupNames, StreamFactory factory) throws IOException {
-        generateFishingSeasonalityConfig(groupNames, factory);
-        generateFishingSeasonalityTables(groupNames, factory);
+    public static void generateFishingParametersFor(SpeciesTable species, StreamFactory factory) throws IOException {
+        generateFishingSeasonalityConfig(species, factory);
+        generateFishingSeasonalityTables(species, factory);
     }
 
-    public static void generateFishingSeasonalityTables(List<String> groupNames, StreamFactory factory) throws IOException {
-        for (String groupName : groupNames) {
-            OutputStream seasonalityOs = factory.outputStreamFor(finishingSeasonalityFilename(groupName));
-            writeLine(seasonalityOs, Arrays.asList("Time", "Season"), false);
-            for (String yearPart : YEAR_PARTS) {
-                writeLine(seasonalityOs, Arrays.asList(yearPart, "0.0"));
+    public static void generateFishingSeasonalityTables(SpeciesTable species, StreamFactory factory) throws IOException {
+        for (String groupName : species.getNames()) {
+            OutputStream os = factory.outputStreamFor(finishingSeasonalityFilename(groupName));
+            try (ParamWriter writer = new ParamWriter(os)) {
+                writer.row(false).value("Time").value("Season");
+                for (String yearPart : YEAR_PARTS) {
+                    writer.row().value(yearPart).value("0.0");
+                }
             }
+            os.close();
         }
     }
 
-    public static void generateFishingSeasonalityConfig(List<String> groupNames, StreamFactory factory) throws IOException {
+    public static void generateFishingSeasonalityConfig(SpeciesTable species, StreamFactory factory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-fishing.csv");
-        writeZerosFor(groupNames, "mortality.fishing.rate.sp", os);
-        writeZerosFor(groupNames, "mortality.fishing.recruitment.age.sp", os);
-        writeZerosFor(groupNames, "mortality.fishing.recruitment.size.sp", os);
-        for (String groupName : groupNames) {
-            String paramName = "mortality.fishing.season.distrib.file.sp" + groupNames.indexOf(groupName);
-            String fishingSeasonality = finishingSeasonalityFilename(groupName);
-            writeLine(os, Arrays.asList(paramName, fishingSeasonality));
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writeZerosFor(species, "mortality.fishing.rate.sp", writer);
+            writeZerosFor(species, "mortality.fishing.recruitment.age.sp", writer);
+            writeZerosFor(species, "mortality.fishing.recruitment.size.sp", writer);
+            for (int i = 0; i < species.size(); i++) {
+                writer.row()
+                        .value("mortality.fishing.season.distrib.file.sp", i)
+                        .value(finishingSeasonalityFilename(species.nameOf(i)));
+            }
         }
+        os.close();
     }
 
     public static String finishingSeasonalityFilename(String groupName) {
         return "fishing/fishing-seasonality-" + groupName + ".csv";
     }
 
-    public static void writeZerosFor(List<String> groupNames, String paramName, OutputStream os) throws IOException {
-        for (String groupName : groupNames) {
-            writeLine(os, Arrays.asList(paramName + groupNames.indexOf(groupName), "0.0"));
+    public static void writeZerosFor(SpeciesTable species, String paramName, ParamWriter writer) throws IOException {
+        for (int i = 0; i < species.size(); i++) {
+            writer.row().value(paramName, i).value("0.0");
         }
     }
 
-    public static void generateStarvationFor(List<String> groupNames, StreamFactory factory) throws IOException {
+    public static void generateStarvationFor(SpeciesTable species, StreamFactory factory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-starvation.csv");
-        for (int i = 0; i < groupNames.size(); i++) {
-            String paramName = "mortality.starvation.rate.max.sp" + i;
-            writeLine(os, Arrays.asList(paramName, "0.3"), i > 0);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            for (int i = 0; i < species.size(); i++) {
+                writer.row(i > 0).value("mortality.starvation.rate.max.sp", i).value("0.3");
+            }
         }
+        os.close();
     }
 
-    public static void generateSpecies(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+    public static void generateSpecies(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-species.csv");
-        for (String groupName : groupNames) {
-            int i = groupNames.indexOf(groupName);
-            writeLine(os, Arrays.asList("species.name.sp" + i, groupName), i > 0);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            for (int i = 0; i < species.size(); i++) {
+                writer.row(i > 0).value("species.name.sp", i).value(species.nameOf(i));
+            }
+
+            writeParamLines(species, "species.egg.size.sp", valueFactory, writer);
+            writeParamLines(species, "species.egg.weight.sp", valueFactory, writer);
+            writeParamLines(species, "species.K.sp", valueFactory, writer);
+            writeParamLines(species, "species.length2weight.allometric.power.sp", valueFactory, writer);
+            writeParamLines(species, "species.length2weight.condition.factor.sp", valueFactory, writer);
+            writeParamLines(species, "species.lifespan.sp", valueFactory, writer);
+            writeParamLines(species, "species.lInf.sp", valueFactory, writer);
+            writeParamLines(species, "species.maturity.size.sp", valueFactory, writer);
+            writeParamLines(species, "species.relativefecundity.sp", valueFactory, writer);
+            writeParamLines(species, "species.sexratio.sp", valueFactory, writer);
+            writeParamLines(species, "species.t0.sp", valueFactory, writer);
+            writeParamLines(species, "species.vonbertalanffy.threshold.age.sp", valueFactory, writer);
+            writeParamLines(species, "species.length2weight.fl.sp", valueFactory, writer);
         }
+        os.close();
+    }
 
-        writeParamLines(groupNames, "species.egg.size.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.egg.weight.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.K.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.length2weight.allometric.power.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.length2weight.condition.factor.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.lifespan.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.lInf.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.maturity.size.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.relativefecundity.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.sexratio.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.t0.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.vonbertalanffy.threshold.age.sp", valueFactory, os);
-        writeParamLines(groupNames, "species.length2weight.fl.sp", valueFactory, os);
-    }
-
-    public static void writeParamLines(List<String> groupNames, String paramPrefix, ValueFactory valueFactory, OutputStream os) throws IOException {
-        for (String groupName : groupNames) {
-            final String paramName = paramPrefix + groupNames.indexOf(groupName);
-            writeLine(os, Arrays.asList(paramName, valueFactory.valueForInGroup(paramPrefix, groupName)));
+    public static void writeParamLines(SpeciesTable species, String paramPrefix, ValueFactory valueFactory, ParamWriter writer) throws IOException {
+        for (int i = 0; i < species.size(); i++) {
+            writer.row()
+                    .value(paramPrefix, i)
+                    .value(valueFactory.valueForInGroup(paramPrefix, species.nameOf(i)));
         }
     }
 
-    public static void writeParamLines(List<String> groupNames, String paramPrefix, List<String> paramValues, OutputStream os) throws IOException {
-        for (String groupName : groupNames) {
-            List<String> values = new ArrayList<String>() {{
-                add(paramPrefix + groupNames.indexOf(groupName));
-                addAll(paramValues);
-            }};
-            writeLine(os, values);
+    public static void writeParamLines(SpeciesTable species, String paramPrefix, List<String> paramValues, ParamWriter writer) throws IOException {
+        for (int i = 0; i < species.size(); i++) {
+            writer.row()
+                    .value(paramPrefix, i)
+                    .values(paramValues);
         }
     }
 
-    public static void generatePredationFor(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+    public static void generatePredationFor(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-predation.csv");
-        writeLine(os, Arrays.asList("predation.accessibility.file", "predation-accessibility.csv"), false);
-        writeLine(os, Arrays.asList("predation.accessibility.stage.structure", "age"));
-        writeParamLines(groupNames, "predation.accessibility.stage.threshold.sp", valueFactory, os);
-        writeParamLines(groupNames, "predation.efficiency.critical.sp", valueFactory, os);
-        writeParamLines(groupNames, "predation.ingestion.rate.max.sp", valueFactory, os);
-        writeParamLines(groupNames, "predation.predPrey.sizeRatio.max.sp", Arrays.asList("0.0", "0.0"), os);
-        writeParamLines(groupNames, "predation.predPrey.sizeRatio.min.sp", Arrays.asList("0.0", "0.0"), os);
-        writeLine(os, Arrays.asList("predation.predPrey.stage.structure", "size"));
-        writeParamLines(groupNames, "predation.predPrey.stage.threshold.sp", valueFactory, os);
-    }
-
-    public static void generateAllParametersFor(List<String> groupNames, List<String> implicitGroupNames, StreamFactory factory) throws IOException {
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(false).value("predation.accessibility.file").value("predation-accessibility.csv");
+            writer.row().value("predation.accessibility.stage.structure").value("age");
+            writeParamLines(species, "predation.accessibility.stage.threshold.sp", valueFactory, writer);
+            writeParamLines(species, "predation.efficiency.critical.sp", valueFactory, writer);
+            writeParamLines(species, "predation.ingestion.rate.max.sp", valueFactory, writer);
+            writeParamLines(species, "predation.predPrey.sizeRatio.max.sp", Arrays.asList("0.0", "0.0"), writer);
+            writeParamLines(species, "predation.predPrey.sizeRatio.min.sp", Arrays.asList("0.0", "0.0"), writer);
+            writer.row().value("predation.predPrey.stage.structure").value("size");
+            writeParamLines(species, "predation.predPrey.stage.threshold.sp", valueFactory, writer);
+        }
+        os.close();
+    }
+
+    public static void generateAllParametersFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory) throws IOException {
+        generateAllParametersFor(species, implicitGroupNames, factory, "");
+    }
+
+    public static void generateAllParametersFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory, String staticDir) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_all-parameters.csv");
-        writeLine(os, Arrays.asList("simulation.time.ndtPerYear", "12"));
-        writeLine(os, Arrays.asList("simulation.time.nyear", "134"));
-        writeLine(os, Arrays.asList("simulation.restart.file", "null"));
-        writeLine(os, Arrays.asList("output.restart.recordfrequency.ndt", "60"));
-        writeLine(os, Arrays.asList("output.restart.spinup", "114"));
-        writeLine(os, Arrays.asList("simulation.nschool", "20"));
-        writeLine(os, Arrays.asList("simulation.ncpu", "8"));
-        writeLine(os, Arrays.asList("simulation.nplankton", Integer.toString(implicitGroupNames.size())));
-        writeLine(os, Arrays.asList("simulation.nsimulation", "10"));
-        writeLine(os, Arrays.asList("simulation.nspecies", Integer.toString(groupNames.size())));
-        writeLine(os, Arrays.asList("mortality.algorithm", "stochastic"));
-        writeLine(os, Arrays.asList("mortality.subdt", "10"));
-        writeLine(os, Arrays.asList("osmose.configuration.output", "osm_param-output.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.movement", "osm_param-movement.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.mpa", "osm_param-mpa.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.mortality.fishing", "osm_param-fishing.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.mortality.natural", "osm_param-natural-mortality.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.mortality.predation", "osm_param-predation.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.mortality.starvation", "osm_param-starvation.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.reproduction", "osm_param-reproduction.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.species", "osm_param-species.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.plankton", "osm_param-ltl.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.grid", "osm_param-grid.csv"));
-        writeLine(os, Arrays.asList("osmose.configuration.initialization", "osm_param-init-pop.csv"));
-
-    }
-
-    public static void generateOutputParamsFor(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row().value("simulation.time.ndtPerYear").value("12");
+            writer.row().value("simulation.time.nyear").value("134");
+            writer.row().value("simulation.restart.file").value("null");
+            writer.row().value("output.restart.recordfrequency.ndt").value("60");
+            writer.row().value("output.restart.spinup").value("114");
+            writer.row().value("simulation.nschool").value("20");
+            writer.row().value("simulation.ncpu").value("8");
+            writer.row().value("simulation.nplankton").value(implicitGroupNames.size());
+            writer.row().value("simulation.nsimulation").value("10");
+            writer.row().value("simulation.nspecies").value(species.size());
+            writer.row().value("mortality.algorithm").value("stochastic");
+            writer.row().value("mortality.subdt").value("10");
+            writer.row().value("osmose.configuration.output").value("osm_param-output.csv");
+            writer.row().value("osmose.configuration.movement").value("osm_param-movement.csv");
+            writer.row().value("osmose.configuration.mpa").value(staticDir + "osm_param-mpa.csv");
+            writer.row().value("osmose.configuration.mortality.fishing").value("osm_param-fishing.csv");
+            writer.row().value("osmose.configuration.mortality.natural").value("osm_param-natural-mortality.csv");
+            writer.row().value("osmose.configuration.mortality.predation").value("osm_param-predation.csv");
+            writer.row().value("osmose.configuration.mortality.starvation").value("osm_param-starvation.csv");
+            writer.row().value("osmose.configuration.reproduction").value("osm_param-reproduction.csv");
+            writer.row().value("osmose.configuration.species").value("osm_param-species.csv");
+            writer.row().value("osmose.configuration.plankton").value(staticDir + "osm_param-ltl.csv");
+            writer.row().value("osmose.configuration.grid").value(staticDir + "osm_param-grid.csv");
+            writer.row().value("osmose.configuration.initialization").value("osm_param-init-pop.csv");
+        }
+        os.close();
+    }
+
+    public static void generateOutputParamsFor(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-output.csv");
-        IOUtils.copy(IOUtils.toInputStream(OUTPUT_DEFAULTS, "UTF-8"), os);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.raw(OUTPUT_DEFAULTS_BYTES);
 
-        writeLine(os, Arrays.asList("output.cutoff.enabled", "true"));
-        writeParamLines(groupNames, "output.cutoff.age.sp", valueFactory, os);
-        writeLine(os, Arrays.asList("output.diet.stage.structure", "agesize"));
-        writeParamLines(groupNames, "output.diet.stage.threshold.sp", Arrays.asList("0.0", "0.0", "0.0"), os);
+            writer.row().value("output.cutoff.enabled").value("true");
+            writeParamLines(species, "output.cutoff.age.sp", valueFactory, writer);
+            writer.row().value("output.diet.stage.structure").value("agesize");
+            writeParamLines(species, "output.diet.stage.threshold.sp", Arrays.asList("0.0", "0.0", "0.0"), writer);
+        }
+        os.close();
     }
 
-    public static void generateNaturalMortalityFor(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+    public static void generateNaturalMortalityFor(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-natural-mortality.csv");
-
-        writeLine(os, Arrays.asList("mortality.natural.larva.rate.file", "null"), false);
-        writeParamLines(groupNames, "mortality.natural.larva.rate.sp", valueFactory, os);
-        writeLine(os, Arrays.asList("mortality.natural.rate.file", "null"));
-        writeParamLines(groupNames, "mortality.natural.rate.sp", valueFactory, os);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(false).value("mortality.natural.larva.rate.file").value("null");
+            writeParamLines(species, "mortality.natural.larva.rate.sp", valueFactory, writer);
+            writer.row().value("mortality.natural.rate.file").value("null");
+            writeParamLines(species, "mortality.natural.rate.sp", valueFactory, writer);
+        }
+        os.close();
     }
 
-    public static void generateInitBiomassFor(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+    public static void generateInitBiomassFor(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-init-pop.csv");
-        writeParamLines(groupNames, "population.seeding.biomass.sp", valueFactory, os);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writeParamLines(species, "population.seeding.biomass.sp", valueFactory, writer);
+        }
+        os.close();
     }
 
 
@@ -287,64 +341,213 @@ public class ConfigUtil {
     }
 
     public static void generateFromTemplate(StreamFactory factory, String staticTemplate) throws IOException {
-        OutputStream os = factory.outputStreamFor(staticTemplate);
-        IOUtils.copy(ConfigUtil.class.getResourceAsStream("osmose_config/" + staticTemplate), os);
+        factory.fromTemplate(staticTemplate, ResourceCatalog.getInstance().get(staticTemplate));
+    }
+
+    public static void generateMaps(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+        generateMaps(species, factory, valueFactory, false);
+    }
+
+    // a shared map lets all groups point to a single copy of the map template instead of one copy per group
+    public static void generateMaps(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory, boolean sharedMap) throws IOException {
+        generateFromTemplate(factory, "grid-mask.csv");
+        generateMovementConfig(species, factory, valueFactory, sharedMap);
+        generateMovementMapTemplates(species, factory, sharedMap);
     }
 
-    public static void generateMaps(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
-        OutputStream maskOs = factory.outputStreamFor("grid-mask.csv");
-        IOUtils.copy(ConfigUtil.class.getResourceAsStream("osmose_config/grid-mask.csv"), maskOs);
-        generateMovementConfig(groupNames, factory, valueFactory);
-        generateMovementMapTemplates(groupNames, factory);
+    public static void generateMovementMapTemplates(SpeciesTable species, StreamFactory factory) throws IOException {
+        generateMovementMapTemplates(species, factory, false);
     }
 
-    public static void generateMovementMapTemplates(List<String> groupNames, StreamFactory factory) throws IOException {
-        int nMaps = 0;
-        for (String groupName : groupNames) {
-            OutputStream mapOutputStream = factory.outputStreamFor(getMapName(nMaps, groupName));
-            IOUtils.copy(ConfigUtil.class.getResourceAsStream("osmose_config/maps/Amberjacks_1.csv"), mapOutputStream);
-            nMaps++;
+    public static void generateMovementMapTemplates(SpeciesTable species, StreamFactory factory, boolean sharedMap) throws IOException {
+        ResourceCatalog.Entry mapTemplate = ResourceCatalog.getInstance().get(MAP_TEMPLATE);
+        if (sharedMap) {
+            factory.fromTemplate(SHARED_MAP_NAME, mapTemplate);
+        } else {
+            for (int nMaps = 0; nMaps < species.size(); nMaps++) {
+                factory.fromTemplate(getMapName(nMaps, species.nameOf(nMaps)), mapTemplate);
+            }
         }
     }
 
-    public static void generateMovementConfig(List<String> groupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+    public static void generateMovementConfig(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+        generateMovementConfig(species, factory, valueFactory, false);
+    }
+
+    public static void generateMovementConfig(SpeciesTable species, StreamFactory factory, ValueFactory valueFactory, boolean sharedMap) throws IOException {
         OutputStream os = factory.outputStreamFor("osm_param-movement.csv");
-        writeParamLines(groupNames, "movement.distribution.method.sp", valueFactory, os);
-        writeParamLines(groupNames, "movement.randomwalk.range.sp", valueFactory, os);
-        int nMaps = 0;
-        for (String groupName : groupNames) {
-            addMapForGroup(os, nMaps, groupName, getMapName(nMaps, groupName));
-            nMaps++;
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writeParamLines(species, "movement.distribution.method.sp", valueFactory, writer);
+            writeParamLines(species, "movement.randomwalk.range.sp", valueFactory, writer);
+            for (int nMaps = 0; nMaps < species.size(); nMaps++) {
+                String groupName = species.nameOf(nMaps);
+                addMapForGroup(writer, nMaps, groupName, sharedMap ? SHARED_MAP_NAME : getMapName(nMaps, groupName));
+            }
         }
+        os.close();
     }
 
+    // separated, as "A1" at 1 and "A" at 11 would otherwise both be maps/A11.csv
     public static String getMapName(int nMaps, String groupName) {
-        return "maps/" + groupName + nMaps + ".csv";
+        return "maps/" + groupName + "_" + nMaps + ".csv";
     }
 
-    public static void addMapForGroup(OutputStream os, int nMaps, String groupName, String mapName) throws IOException {
-        String prefix = "movement.map" + nMaps;
-        writeLine(os, Arrays.asList(prefix + ".age.max", "2"));
-        writeLine(os, Arrays.asList(prefix + ".age.min", "0"));
-        writeLine(os, Arrays.asList(prefix + ".file", mapName));
-        writeLine(os, Arrays.asList(prefix + ".season", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11"));
-        writeLine(os, Arrays.asList(prefix + ".species", groupName));
+    public static void addMapForGroup(ParamWriter writer, int nMaps, String groupName, String mapName) throws IOException {
+        writer.row().value("movement.map", nMaps).raw(".age.max").value("2");
+        writer.row().value("movement.map", nMaps).raw(".age.min").value("0");
+        writer.row().value("movement.map", nMaps).raw(".file").value(mapName);
+        writer.row().value("movement.map", nMaps).raw(".season").values(SEASONS);
+        writer.row().value("movement.map", nMaps).raw(".species").value(groupName);
     }
 
     public static void generateConfigFor(List<String> groupNames, List<String> implicitGroupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
-        generateAllParametersFor(groupNames, implicitGroupNames, factory);
-        generateFishingParametersFor(groupNames, factory);
-        generateInitBiomassFor(groupNames, factory, valueFactory);
-        generateMaps(groupNames, factory, valueFactory);
-        generateNaturalMortalityFor(groupNames, factory, valueFactory);
-        generateOutputParamsFor(groupNames, factory, valueFactory);
-        generatePredationFor(groupNames, factory, valueFactory);
-        generatePredationAccessibilityFor(groupNames, implicitGroupNames, factory);
-        generateSeasonalReproductionFor(groupNames, factory);
+        generateConfigFor(SpeciesTable.of(groupNames), implicitGroupNames, factory, valueFactory);
+    }
+
+    public static void generateConfigFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory, ValueFactory valueFactory) throws IOException {
+        generateConfigFor(species, implicitGroupNames, factory, valueFactory, false);
+    }
 
-        generateSpecies(groupNames, factory, valueFactory);
-        generateStarvationFor(groupNames, factory);
-        generateStatic(factory);
+    public static void generateConfigFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory, ValueFactory valueFactory, boolean sharedMap) throws IOException {
+        generateConfigFor(species, implicitGroupNames, factory, valueFactory, sharedMap, "");
+    }
+
+    // staticDir is where osm_all-parameters.csv expects the STATIC_TEMPLATES, relative to itself
+    public static void generateConfigFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory, ValueFactory valueFactory, boolean sharedMap, String staticDir) throws IOException {
+        for (Map.Entry<String, ConfigGenerator> generator : generatorsFor(species, implicitGroupNames, valueFactory, sharedMap, staticDir).entrySet()) {
+            long start = System.nanoTime();
+            generator.getValue().generate(factory);
+            stageTimer(generator.getKey()).observe(System.nanoTime() - start);
+        }
+    }
+
+    // renders the generators concurrently into buffers, which are written to factory in the same order as above
+    public static void generateConfigFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory, ValueFactory valueFactory, boolean sharedMap, String staticDir, Executor executor) throws IOException {
+        List<FutureTask<BufferedStreamFactory>> tasks = new ArrayList<FutureTask<BufferedStreamFactory>>();
+        for (final Map.Entry<String, ConfigGenerator> generator : generatorsFor(species, implicitGroupNames, valueFactory, sharedMap, staticDir).entrySet()) {
+            FutureTask<BufferedStreamFactory> task = new FutureTask<BufferedStreamFactory>(new Callable<BufferedStreamFactory>() {
+                @Override
+                public BufferedStreamFactory call() throws Exception {
+                    long start = System.nanoTime();
+                    BufferedStreamFactory buffer = new BufferedStreamFactory();
+                    generator.getValue().generate(buffer);
+                    stageTimer(generator.getKey()).observe(System.nanoTime() - start);
+                    return buffer;
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        try {
+            for (FutureTask<BufferedStreamFactory> task : tasks) {
+                // runs the generator on this thread if no worker picked it up yet, so a busy executor cannot stall the writer
+                task.run();
+                task.get().writeTo(factory, "");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating config", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("failed to generate config", cause);
+        } finally {
+            for (FutureTask<BufferedStreamFactory> task : tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    private static MetricRegistry.Histogram stageTimer(String stage) {
+        return STAGE_TIMERS.computeIfAbsent(stage, new Function<String, MetricRegistry.Histogram>() {
+            @Override
+            public MetricRegistry.Histogram apply(String stage) {
+                return MetricRegistry.getInstance().timer("fbob_generation_stage_duration_seconds", "Time spent per config generation stage, from trait lookups to rendering files.", "stage", stage);
+            }
+        });
+    }
+
+    // in the order files are written; the names label the generation stage metrics
+    static Map<String, ConfigGenerator> generatorsFor(final SpeciesTable species, final List<String> implicitGroupNames, final ValueFactory valueFactory, final boolean sharedMap, final String staticDir) {
+        Map<String, ConfigGenerator> generators = new LinkedHashMap<String, ConfigGenerator>();
+        generators.put("all-parameters", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateAllParametersFor(species, implicitGroupNames, factory, staticDir);
+            }
+        });
+        generators.put("fishing", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateFishingParametersFor(species, factory);
+            }
+        });
+        generators.put("init-biomass", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateInitBiomassFor(species, factory, valueFactory);
+            }
+        });
+        generators.put("maps", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateMaps(species, factory, valueFactory, sharedMap);
+            }
+        });
+        generators.put("natural-mortality", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateNaturalMortalityFor(species, factory, valueFactory);
+            }
+        });
+        generators.put("output", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateOutputParamsFor(species, factory, valueFactory);
+            }
+        });
+        generators.put("predation", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generatePredationFor(species, factory, valueFactory);
+            }
+        });
+        generators.put("predation-accessibility", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generatePredationAccessibilityFor(species, implicitGroupNames, factory);
+            }
+        });
+        generators.put("reproduction", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateSeasonalReproductionFor(species, factory);
+            }
+        });
+        generators.put("species", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateSpecies(species, factory, valueFactory);
+            }
+        });
+        generators.put("starvation", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateStarvationFor(species, factory);
+            }
+        });
+        generators.put("static", new ConfigGenerator() {
+            @Override
+            public void generate(StreamFactory factory) throws IOException {
+                generateStatic(factory);
+            }
+        });
+        return generators;
     }
 
     public static ValueFactory getProxyValueFactory(List<ValueFactory> valueFactories) {
@@ -409,50 +612,63 @@ public class ConfigUtil {
     }
 
     public static ValueFactory getFishbaseValueFactory() {
+        return getFishbaseValueFactory(TraitCache.getInstance());
+    }
+
+    public static ValueFactory getFishbaseValueFactory(final Map<String, Map<String, String>> traitsByGroup) {
         return new ValueFactory() {
-            Map<String, Map<String, String>> groupDefaults = new HashMap<String, Map<String, String>>();
+            @Override
+            public String valueForInGroup(String name, String groupName) {
+                final Map<String, String> traits = traitsByGroup.get(groupName);
+                return traits == null ? null : traits.get(name);
+            }
+        };
+    }
 
+    public static ValueFactory getOverrideValueFactory(final Map<String, String> overrides, final Map<String, Map<String, String>> groupOverrides) {
+        return new ValueFactory() {
             @Override
             public String valueForInGroup(String name, String groupName) {
-                final Map<String, String> valuesForGroup = groupDefaults.get(groupName);
-                if (valuesForGroup == null) {
-                    try {
-                        final Map<String, String> traitsForGroup = TraitFinder.findTraitsForGroup(groupName, getClass().getResourceAsStream("fishbase-mapping.csv"));
-                        if (traitsForGroup != null) {
-                            groupDefaults.put(groupName, traitsForGroup);
-                        }
-                    } catch (URISyntaxException e) {
-                        throw new RuntimeException("failed to retrieve traits for [" + groupName + "]", e);
-                    } catch (IOException e) {
-                        throw new RuntimeException("failed to retrieve traits for [" + groupName + "]", e);
-                    }
+                final Map<String, String> overridesForGroup = groupOverrides.get(groupName);
+                String value = overridesForGroup == null ? null : overridesForGroup.get(name);
+                return value == null ? overrides.get(name) : value;
+            }
+        };
+    }
+
+    public static ValueFactory getFishbaseValueFactory(final TraitCache traitCache) {
+        return new ValueFactory() {
+            @Override
+            public String valueForInGroup(String name, String groupName) {
+                try {
+                    return traitCache.get(groupName).get(name);
+                } catch (IOException e) {
+                    throw new RuntimeException("failed to retrieve traits for [" + groupName + "]", e);
                 }
-                return valuesForGroup == null ? null : valuesForGroup.get(name);
             }
         };
     }
 
-    public static void generatePredationAccessibilityFor(List<String> groupNames, List<String> implicitGroupNames, StreamFactory factory) throws IOException {
-        List<String> columnHeaders = new ArrayList<String>();
-        for (String groupName : groupNames) {
-            columnHeaders.add(groupName + " < 0.0 year");
-            columnHeaders.add(groupName + " > 0.0 year");
-        }
-        columnHeaders.addAll(implicitGroupNames.stream().collect(Collectors.toList()));
-
-        OutputStream outputStream = factory.outputStreamFor("predation-accessibility.csv");
-        writeLine(outputStream, new ArrayList<String>() {{
-            add("v Prey / Predator >");
-            addAll(columnHeaders);
-        }}, false);
-
-        for (String header : columnHeaders) {
-            List<String> row = new ArrayList<String>();
-            row.add(header);
-            for (int i = 0; i < columnHeaders.size(); i++) {
-                row.add("0.0");
+    // answers from the memory mapped snapshot only, e.g. to generate offline
+    public static ValueFactory getSnapshotValueFactory(final TraitSnapshot snapshot) {
+        return new ValueFactory() {
+            @Override
+            public String valueForInGroup(String name, String groupName) {
+                final Map<String, String> traits = snapshot.get(groupName);
+                return traits == null ? null : traits.get(name);
             }
-            writeLine(outputStream, row);
+        };
+    }
+
+    public static void generatePredationAccessibilityFor(SpeciesTable species, List<String> implicitGroupNames, StreamFactory factory) throws IOException {
+        generatePredationAccessibilityFor(AccessibilityMatrix.forSpecies(species, implicitGroupNames), factory);
+    }
+
+    public static void generatePredationAccessibilityFor(AccessibilityMatrix matrix, StreamFactory factory) throws IOException {
+        OutputStream os = factory.outputStreamFor("predation-accessibility.csv");
+        try (ParamWriter writer = new ParamWriter(os)) {
+            matrix.writeTo(writer);
         }
+        os.close();
     }
 }
@@ -0,0 +1,181 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FishbaseClient {
+
+    interface BodyReader<T> {
+        T read(InputStream is) throws IOException;
+    }
+
+    private static final MetricRegistry.Histogram UPSTREAM_LATENCY = MetricRegistry.getInstance()
+            .timer("fbob_upstream_request_duration_seconds", "Time of FishBase requests, including failed attempts.", "upstream", "fishbase");
+    private static final MetricRegistry.Counter UPSTREAM_FAILURES = MetricRegistry.getInstance()
+            .counter("fbob_upstream_failures_total", "FishBase requests that failed or responded with an error status.", "upstream", "fishbase");
+    private static final MetricRegistry.Counter UPSTREAM_RETRIES = MetricRegistry.getInstance()
+            .counter("fbob_upstream_retries_total", "FishBase requests that were retried.", "upstream", "fishbase");
+
+    private static volatile FishbaseClient instance;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final int maxRetries;
+    private final long backoffMillis;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public FishbaseClient(int maxConnections, int maxPerHost, int connectTimeoutMillis, int readTimeoutMillis, long keepAliveMillis, int maxRetries, long backoffMillis) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.connectionManager = new PoolingHttpClientConnectionManager(keepAliveMillis, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        this.connectionManager.setValidateAfterInactivity(1000);
+        // HttpClientBuilder sends Accept-Encoding and transparently decodes gzip/deflate responses
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setConnectionRequestTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(readTimeoutMillis)
+                        .build())
+                .disableAutomaticRetries()
+                .setUserAgent("fb-osmose-bridge")
+                .build();
+    }
+
+    public static FishbaseClient getInstance() {
+        FishbaseClient fishbaseClient = instance;
+        if (fishbaseClient == null) {
+            synchronized (FishbaseClient.class) {
+                fishbaseClient = instance;
+                if (fishbaseClient == null) {
+                    fishbaseClient = new FishbaseClient(
+                            Settings.getInt("http.max.connections", 50),
+                            Settings.getInt("http.max.per.host", 20),
+                            Settings.getInt("http.connect.timeout.millis", 5000),
+                            Settings.getInt("http.read.timeout.millis", 10000),
+                            Settings.getLong("http.keepalive.millis", 30000),
+                            Settings.getInt("http.retries", 2),
+                            Settings.getLong("http.retry.backoff.millis", 200));
+                    instance = fishbaseClient;
+                }
+            }
+        }
+        return fishbaseClient;
+    }
+
+    public String getString(URI uri) throws IOException {
+        return get(uri, new BodyReader<String>() {
+            @Override
+            public String read(InputStream is) throws IOException {
+                return IOUtils.toString(is, "UTF-8");
+            }
+        });
+    }
+
+    public <T> T get(URI uri, BodyReader<T> reader) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            if (attempt > 0) {
+                retries.incrementAndGet();
+                UPSTREAM_RETRIES.inc();
+                backoff(attempt);
+            }
+            requests.incrementAndGet();
+            boolean retryable = true;
+            long start = System.nanoTime();
+            try (CloseableHttpResponse response = client.execute(new HttpGet(uri))) {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status == HttpStatus.SC_OK && entity != null) {
+                    try (InputStream is = entity.getContent()) {
+                        return reader.read(is);
+                    }
+                }
+                EntityUtils.consumeQuietly(entity);
+                failure = new IOException("[" + uri + "] responded with [" + response.getStatusLine() + "]");
+                retryable = isRetryable(status);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                record(System.nanoTime() - start);
+            }
+            failures.incrementAndGet();
+            UPSTREAM_FAILURES.inc();
+            if (!retryable) {
+                break;
+            }
+        }
+        throw failure;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private void backoff(int attempt) throws IOException {
+        try {
+            Thread.sleep(backoffMillis << (attempt - 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while backing off", e);
+        }
+    }
+
+    private void record(long nanos) {
+        UPSTREAM_LATENCY.observe(nanos);
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+        }
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
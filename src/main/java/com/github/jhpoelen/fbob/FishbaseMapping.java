@@ -0,0 +1,252 @@
+package com.github.jhpoelen.fbob;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+public class FishbaseMapping {
+
+    public enum Derivation {
+        DIRECT, PRODUCT, RATIO, FIRST_AVAILABLE, FORK_LENGTH
+    }
+
+    public enum Type {
+        NUMBER, BOOLEAN, TEXT
+    }
+
+    // combinations spelled out in the "FishBase column(s)" and notes of fishbase-mapping.csv
+    private static final Map<String, Derivation> DERIVATIONS = new HashMap<String, Derivation>() {{
+        put("RelFecundityMean and SpawningCycles", Derivation.PRODUCT);
+        put("MaintQB and PopQB", Derivation.RATIO);
+        put("tm or Lm", Derivation.FIRST_AVAILABLE);
+        // poplw gives the length type (TL, FL, SL) a length-weight relationship was estimated for
+        put("Type", Derivation.FORK_LENGTH);
+    }};
+
+    private static volatile FishbaseMapping instance;
+
+    private final List<Entry> entries;
+    private final Map<String, List<Entry>> entriesByTable;
+    private final Map<String, Set<String>> columnsByTable;
+    private final Set<String> columns;
+    private final Map<String, Entry> entriesByProperty;
+
+    FishbaseMapping(List<Entry> entries) {
+        Map<String, List<Entry>> byTable = new LinkedHashMap<String, List<Entry>>();
+        Map<String, Set<String>> tableColumns = new LinkedHashMap<String, Set<String>>();
+        Set<String> allColumns = new LinkedHashSet<String>();
+        Map<String, Entry> byProperty = new HashMap<String, Entry>();
+        for (Entry entry : entries) {
+            if (!byTable.containsKey(entry.getTable())) {
+                byTable.put(entry.getTable(), new ArrayList<Entry>());
+                tableColumns.put(entry.getTable(), new LinkedHashSet<String>());
+            }
+            byTable.get(entry.getTable()).add(entry);
+            tableColumns.get(entry.getTable()).addAll(entry.getColumns());
+            allColumns.addAll(entry.getColumns());
+            byProperty.put(entry.getProperty(), entry);
+        }
+        for (Map.Entry<String, List<Entry>> table : byTable.entrySet()) {
+            table.setValue(Collections.unmodifiableList(table.getValue()));
+            tableColumns.put(table.getKey(), Collections.unmodifiableSet(tableColumns.get(table.getKey())));
+        }
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+        this.entriesByTable = Collections.unmodifiableMap(byTable);
+        this.columnsByTable = Collections.unmodifiableMap(tableColumns);
+        this.columns = Collections.unmodifiableSet(allColumns);
+        this.entriesByProperty = Collections.unmodifiableMap(byProperty);
+    }
+
+    public static FishbaseMapping getInstance() {
+        FishbaseMapping mapping = instance;
+        if (mapping == null) {
+            synchronized (FishbaseMapping.class) {
+                mapping = instance;
+                if (mapping == null) {
+                    try (InputStream is = FishbaseMapping.class.getResourceAsStream("fishbase-mapping.csv")) {
+                        mapping = load(is);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("failed to load [fishbase-mapping.csv]", e);
+                    }
+                    instance = mapping;
+                }
+            }
+        }
+        return mapping;
+    }
+
+    public static FishbaseMapping load(InputStream mappingInputStream) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        final CSVReader reader = new CSVReader(new InputStreamReader(mappingInputStream, StandardCharsets.UTF_8), ',');
+        reader.readNext();
+        String[] line;
+        while ((line = reader.readNext()) != null) {
+            if (line.length > 3 && StringUtils.isNotBlank(line[1])) {
+                entries.add(new Entry(line[0], line[1], line[2], line[3]));
+            }
+        }
+        return new FishbaseMapping(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Set<String> getTables() {
+        return entriesByTable.keySet();
+    }
+
+    public List<Entry> getEntries(String table) {
+        List<Entry> tableEntries = entriesByTable.get(table);
+        return tableEntries == null ? Collections.<Entry>emptyList() : tableEntries;
+    }
+
+    public Set<String> getColumns() {
+        return columns;
+    }
+
+    public Set<String> getColumns(String table) {
+        Set<String> tableColumns = columnsByTable.get(table);
+        return tableColumns == null ? Collections.<String>emptySet() : tableColumns;
+    }
+
+    public Entry forProperty(String property) {
+        return entriesByProperty.get(property);
+    }
+
+    public Map<String, String> apply(Map<String, String> columnValues) {
+        Map<String, String> properties = new HashMap<String, String>();
+        for (Entry entry : entries) {
+            properties.put(entry.getProperty(), entry.valueFrom(columnValues));
+        }
+        return properties;
+    }
+
+    public static class Entry {
+        private final String table;
+        private final String columnSpec;
+        private final List<String> columns;
+        private final Derivation derivation;
+        private final String property;
+        private final String defaultValue;
+        private final Type type;
+
+        Entry(String table, String columnSpec, String property, String defaultValue) {
+            this.table = StringUtils.trim(table);
+            this.columnSpec = StringUtils.trim(columnSpec);
+            this.derivation = DERIVATIONS.containsKey(this.columnSpec) ? DERIVATIONS.get(this.columnSpec) : Derivation.DIRECT;
+            this.columns = this.derivation == Derivation.DIRECT
+                    ? Collections.singletonList(this.columnSpec)
+                    : Collections.unmodifiableList(Arrays.asList(StringUtils.split(this.columnSpec.replace(" and ", " ").replace(" or ", " "))));
+            this.property = property;
+            this.defaultValue = defaultValue;
+            this.type = typeOf(defaultValue);
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        public Derivation getDerivation() {
+            return derivation;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String valueFrom(Map<String, String> columnValues) {
+            String value;
+            switch (derivation) {
+                case PRODUCT:
+                    value = combine(columnValues, false);
+                    break;
+                case RATIO:
+                    value = combine(columnValues, true);
+                    break;
+                case FIRST_AVAILABLE:
+                    value = null;
+                    for (String column : columns) {
+                        value = columnValues.get(column);
+                        if (value != null) {
+                            break;
+                        }
+                    }
+                    break;
+                case FORK_LENGTH:
+                    value = columnValues.get(columns.get(0));
+                    if (value != null) {
+                        value = Boolean.toString("FL".equalsIgnoreCase(StringUtils.trim(value)));
+                    }
+                    break;
+                default:
+                    value = columnValues.get(columns.get(0));
+                    if (type == Type.NUMBER && !NumberUtils.isNumber(value)) {
+                        value = null;
+                    }
+            }
+            if (type == Type.BOOLEAN) {
+                value = isBoolean(value) ? StringUtils.lowerCase(value, Locale.ROOT) : null;
+            }
+            return value == null ? defaultValue : value;
+        }
+
+        private String combine(Map<String, String> columnValues, boolean ratio) {
+            String first = columnValues.get(columns.get(0));
+            String second = columnValues.get(columns.get(1));
+            String value = null;
+            if (NumberUtils.isNumber(first) && NumberUtils.isNumber(second)) {
+                double left = Double.parseDouble(first);
+                double right = Double.parseDouble(second);
+                if (!ratio) {
+                    value = Double.toString(left * right);
+                } else if (right != 0.0) {
+                    value = Double.toString(left / right);
+                }
+            }
+            return value;
+        }
+
+        private static Type typeOf(String defaultValue) {
+            Type type = Type.TEXT;
+            if (NumberUtils.isNumber(defaultValue)) {
+                type = Type.NUMBER;
+            } else if (isBoolean(defaultValue)) {
+                type = Type.BOOLEAN;
+            }
+            return type;
+        }
+
+        private static boolean isBoolean(String value) {
+            return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+        }
+    }
+}
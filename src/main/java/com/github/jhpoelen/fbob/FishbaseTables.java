@@ -0,0 +1,251 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// the FishBase tables other than species that hold traits of focal species (popgrowth, poplw, maturity, ...), fetched
+// concurrently by SpecCode through one cache per table; the records of a table are combined into one value per column
+public class FishbaseTables {
+
+    public static final String SPECIES = "species";
+    public static final String SPEC_CODE = "SpecCode";
+
+    // records are ordered by these columns for Aggregate.LATEST
+    static final List<String> DATE_COLUMNS = Collections.unmodifiableList(Arrays.asList("DateModified", "DateEntered"));
+
+    // the API answers 10 records unless asked for more
+    private static final int MAX_RECORDS = 1000;
+
+    public enum Aggregate {
+        FIRST, LATEST, MEDIAN, MEAN;
+
+        public static Aggregate parse(String name) {
+            for (Aggregate aggregate : values()) {
+                if (StringUtils.equalsIgnoreCase(aggregate.name(), StringUtils.trim(name))) {
+                    return aggregate;
+                }
+            }
+            throw new IllegalArgumentException("unknown aggregate [" + name + "], expected one of first, latest, median or mean");
+        }
+    }
+
+    private static volatile FishbaseTables instance;
+
+    private final FishbaseMapping mapping;
+    private final Executor executor;
+    private final Map<String, TraitCache> caches = new LinkedHashMap<String, TraitCache>();
+
+    public FishbaseTables(FishbaseMapping mapping, Executor executor, long ttlMillis, long negativeTtlMillis, int maxEntries) {
+        this.mapping = mapping;
+        this.executor = executor;
+        for (String table : tablesOf(mapping)) {
+            caches.put(table, new TraitCache(loaderFor(table), ttlMillis, negativeTtlMillis, maxEntries, null));
+        }
+    }
+
+    public static FishbaseTables getInstance() {
+        FishbaseTables tables = instance;
+        if (tables == null) {
+            synchronized (FishbaseTables.class) {
+                tables = instance;
+                if (tables == null) {
+                    // a pool of its own, as the species lookups waiting on these run on the io pool
+                    tables = new FishbaseTables(FishbaseMapping.getInstance(),
+                            Executors.newFixedThreadPool(Settings.getInt("fishbase.table.threads", 16), WorkerPools.daemonThreads("fbob-tables")),
+                            TimeUnit.SECONDS.toMillis(Settings.getLong("traits.cache.ttl.seconds", TimeUnit.DAYS.toSeconds(7))),
+                            TimeUnit.SECONDS.toMillis(Settings.getLong("traits.cache.negative.ttl.seconds", TimeUnit.HOURS.toSeconds(1))),
+                            Settings.getInt("traits.cache.max.entries", 10000));
+                    for (Map.Entry<String, TraitCache> cache : tables.caches.entrySet()) {
+                        TraitCache.register(cache.getValue(), "fishbase_" + cache.getKey());
+                    }
+                    instance = tables;
+                }
+            }
+        }
+        return tables;
+    }
+
+    // tables named in the mapping for properties of focal species (".sp"), leaving out unmapped ("?") and plankton ones
+    static Set<String> tablesOf(FishbaseMapping mapping) {
+        Set<String> tables = new LinkedHashSet<String>();
+        for (FishbaseMapping.Entry entry : mapping.getEntries()) {
+            if (StringUtils.isAlpha(entry.getTable())
+                    && !StringUtils.equals(entry.getTable(), SPECIES)
+                    && StringUtils.endsWith(entry.getProperty(), ".sp")) {
+                tables.add(entry.getTable());
+            }
+        }
+        return tables;
+    }
+
+    public Set<String> getTables() {
+        return caches.keySet();
+    }
+
+    // e.g. fishbase.aggregate.popgrowth=latest, falling back to fishbase.aggregate
+    public static Aggregate aggregateFor(String table) {
+        return Aggregate.parse(Settings.get("fishbase.aggregate." + table, Settings.get("fishbase.aggregate", "median")));
+    }
+
+    // all tables are requested at once, so this takes as long as the slowest of them
+    public Map<String, String> columnsFor(String specCode) throws IOException {
+        Map<String, CompletableFuture<Map<String, String>>> pending = new LinkedHashMap<String, CompletableFuture<Map<String, String>>>();
+        for (Map.Entry<String, TraitCache> cache : caches.entrySet()) {
+            pending.put(cache.getKey(), cache.getValue().getAsync(specCode, executor));
+        }
+        Map<String, String> columnValues = new HashMap<String, String>();
+        try {
+            for (Map.Entry<String, CompletableFuture<Map<String, String>>> lookup : pending.entrySet()) {
+                columnValues.putAll(lookup.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException("failed to retrieve FishBase tables for SpecCode [" + specCode + "]", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while retrieving FishBase tables for SpecCode [" + specCode + "]", e);
+        }
+        return columnValues;
+    }
+
+    private TraitCache.Loader loaderFor(final String table) {
+        final Set<String> columns = mapping.getColumns(table);
+        final Set<String> requested = new LinkedHashSet<String>(columns);
+        requested.addAll(DATE_COLUMNS);
+        return new TraitCache.Loader() {
+            @Override
+            public Map<String, String> load(String specCode) throws IOException {
+                final Aggregate aggregate = aggregateFor(table);
+                try {
+                    return FishbaseClient.getInstance().get(TraitFinder.uriForFishbaseQuery(table, SPEC_CODE + "=" + specCode + "&limit=" + MAX_RECORDS),
+                            new FishbaseClient.BodyReader<Map<String, String>>() {
+                                @Override
+                                public Map<String, String> read(InputStream is) throws IOException {
+                                    return aggregate(TraitFinder.records(is, requested, MAX_RECORDS), columns, aggregate);
+                                }
+                            });
+                } catch (URISyntaxException e) {
+                    throw new IOException("failed to retrieve [" + table + "] for SpecCode [" + specCode + "]", e);
+                }
+            }
+        };
+    }
+
+    // one value per column: FIRST and LATEST take a whole record, MEDIAN and MEAN combine the numbers of each column
+    // and take the latest value of columns that are not numeric, in the order LATEST picks records
+    public static Map<String, String> aggregate(List<Map<String, String>> records, Set<String> columns, Aggregate aggregate) {
+        Map<String, String> columnValues = new HashMap<String, String>();
+        if (records.isEmpty()) {
+            return columnValues;
+        }
+        List<Map<String, String>> ordered = aggregate == Aggregate.FIRST ? records : latestFirst(records);
+        if (aggregate == Aggregate.FIRST || aggregate == Aggregate.LATEST) {
+            Map<String, String> record = ordered.get(0);
+            for (String column : columns) {
+                if (record.get(column) != null) {
+                    columnValues.put(column, record.get(column));
+                }
+            }
+        } else {
+            for (String column : columns) {
+                String value = combine(ordered, column, aggregate);
+                if (value != null) {
+                    columnValues.put(column, value);
+                }
+            }
+        }
+        return columnValues;
+    }
+
+    // the records by descending date, undated ones last and records of the same date last listed first
+    private static List<Map<String, String>> latestFirst(List<Map<String, String>> records) {
+        List<Map<String, String>> ordered = new ArrayList<Map<String, String>>(records);
+        Collections.reverse(ordered);
+        Collections.sort(ordered, new Comparator<Map<String, String>>() {
+            @Override
+            public int compare(Map<String, String> one, Map<String, String> other) {
+                String date = dateOf(one);
+                String otherDate = dateOf(other);
+                if (date == null || otherDate == null) {
+                    return date == null ? (otherDate == null ? 0 : 1) : -1;
+                }
+                return otherDate.compareTo(date);
+            }
+        });
+        return ordered;
+    }
+
+    private static String dateOf(Map<String, String> record) {
+        for (String column : DATE_COLUMNS) {
+            if (StringUtils.isNotBlank(record.get(column))) {
+                return record.get(column);
+            }
+        }
+        return null;
+    }
+
+    private static String combine(List<Map<String, String>> records, String column, Aggregate aggregate) {
+        List<BigDecimal> numbers = new ArrayList<BigDecimal>();
+        String first = null;
+        boolean integral = true;
+        for (Map<String, String> record : records) {
+            String value = record.get(column);
+            if (value == null) {
+                continue;
+            }
+            if (first == null) {
+                first = value;
+            }
+            BigDecimal number;
+            try {
+                number = new BigDecimal(StringUtils.trim(value));
+            } catch (NumberFormatException e) {
+                return first;
+            }
+            integral = integral && number.scale() <= 0;
+            numbers.add(number);
+        }
+        if (numbers.size() < 2) {
+            return first;
+        }
+        BigDecimal combined;
+        if (aggregate == Aggregate.MEAN) {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal number : numbers) {
+                sum = sum.add(number);
+            }
+            combined = sum.divide(BigDecimal.valueOf(numbers.size()), MathContext.DECIMAL64);
+        } else {
+            Collections.sort(numbers);
+            int middle = numbers.size() / 2;
+            combined = numbers.size() % 2 == 1
+                    ? numbers.get(middle)
+                    : numbers.get(middle - 1).add(numbers.get(middle)).divide(BigDecimal.valueOf(2), MathContext.DECIMAL64);
+        }
+        // integers stay integers when they combine into one, like FishBase renders them
+        return integral && combined.stripTrailingZeros().scale() <= 0
+                ? combined.toBigInteger().toString()
+                : Double.toString(combined.doubleValue());
+    }
+}
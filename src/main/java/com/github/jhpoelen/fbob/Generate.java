@@ -0,0 +1,274 @@
+package com.github.jhpoelen.fbob;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+
+// generates configurations from the command line without starting the http server, e.g. for batch scripts:
+// java -cp "target/classes:target/dependency/*" com.github.jhpoelen.fbob.Generate -o osmose_config.zip ScomberomorusCavalla
+public class Generate {
+
+    static final String USAGE = "usage: Generate [-o dir|file.zip|file.tar|file.tar.gz] [--scenarios file.json|file.csv]"
+            + " [--traits file.json] [--snapshot file] [--offline] [--save-traits file.json] [--shared-map] [--compression store|fast|default|max]"
+            + " [htlGroupName...]";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    // 0 when generated, 1 when generating failed and 2 for invalid arguments
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        File output = new File(Config.OSMOSE_CONFIG);
+        File scenarioFile = null;
+        File traitsFile = null;
+        File snapshotFile = null;
+        File savedTraitsFile = null;
+        boolean offline = false;
+        boolean sharedMap = Settings.getBoolean("maps.shared", false);
+        String compressionName = Settings.get("archive.compression", "default");
+        List<String> groupNames = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (StringUtils.equals(arg, "-h") || StringUtils.equals(arg, "--help")) {
+                    out.println(USAGE);
+                    return 0;
+                } else if (StringUtils.equals(arg, "-o") || StringUtils.equals(arg, "--output")) {
+                    output = new File(valueOf(args, ++i, arg));
+                } else if (StringUtils.equals(arg, "--scenarios")) {
+                    scenarioFile = new File(valueOf(args, ++i, arg));
+                } else if (StringUtils.equals(arg, "--traits")) {
+                    traitsFile = new File(valueOf(args, ++i, arg));
+                } else if (StringUtils.equals(arg, "--snapshot")) {
+                    snapshotFile = new File(valueOf(args, ++i, arg));
+                } else if (StringUtils.equals(arg, "--save-traits")) {
+                    savedTraitsFile = new File(valueOf(args, ++i, arg));
+                } else if (StringUtils.equals(arg, "--offline")) {
+                    offline = true;
+                } else if (StringUtils.equals(arg, "--shared-map")) {
+                    sharedMap = true;
+                } else if (StringUtils.equals(arg, "--compression")) {
+                    compressionName = valueOf(args, ++i, arg);
+                } else if (StringUtils.startsWith(arg, "-")) {
+                    throw new IllegalArgumentException("unknown option [" + arg + "]");
+                } else {
+                    groupNames.add(arg);
+                }
+            }
+            Compression compression = Compression.parse(compressionName);
+            ArchiveFormat format = formatOf(output);
+
+            List<Scenario> scenarios = null;
+            Set<String> allGroupNames = new LinkedHashSet<String>(groupNames);
+            if (scenarioFile != null) {
+                if (!groupNames.isEmpty()) {
+                    throw new IllegalArgumentException("expected either htlGroupName arguments or --scenarios, not both");
+                }
+                scenarios = readScenarios(scenarioFile);
+                ConfigBatch.checkScenarios(scenarios);
+                for (Scenario scenario : scenarios) {
+                    allGroupNames.addAll(scenario.htlGroupName);
+                }
+            } else if (groupNames.isEmpty()) {
+                throw new IllegalArgumentException("no htlGroupName or --scenarios given");
+            }
+
+            long start = System.nanoTime();
+            Map<String, Map<String, String>> traits = traitsFor(new ArrayList<String>(allGroupNames), traitsFile, snapshotFile, offline);
+            if (savedTraitsFile != null) {
+                writeTraits(traits, savedTraitsFile);
+            }
+            if (scenarios == null) {
+                writeConfig(groupNames, traits, sharedMap, output, format, compression);
+            } else {
+                writeScenarios(scenarios, traits, output, format, compression);
+            }
+            out.println("wrote [" + output.getPath() + "] in [" + (System.nanoTime() - start) / 1000000 + "] ms");
+            return 0;
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        } catch (IOException | TimeoutException e) {
+            err.println("failed to generate [" + output.getPath() + "]: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static String valueOf(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("option [" + option + "] needs a value");
+        }
+        return args[i];
+    }
+
+    // archives by file extension, anything else is a directory
+    static ArchiveFormat formatOf(File output) {
+        String name = StringUtils.lowerCase(output.getName());
+        if (StringUtils.endsWith(name, ".tar.gz") || StringUtils.endsWith(name, ".tgz")) {
+            return ArchiveFormat.TAR_GZ;
+        } else if (StringUtils.endsWith(name, ".tar")) {
+            return ArchiveFormat.TAR;
+        } else if (StringUtils.endsWith(name, ".zip")) {
+            return ArchiveFormat.ZIP;
+        }
+        return null;
+    }
+
+    static List<Scenario> readScenarios(File scenarioFile) throws IOException {
+        try (InputStream is = new FileInputStream(scenarioFile)) {
+            return StringUtils.endsWithIgnoreCase(scenarioFile.getName(), ".csv")
+                    ? Scenario.fromCsv(is)
+                    : Scenario.fromJson(is);
+        }
+    }
+
+    // traits from the file win over those in the snapshot, other groups are looked up on FishBase unless offline,
+    // in which case they get defaults
+    static Map<String, Map<String, String>> traitsFor(List<String> groupNames, File traitsFile, File snapshotFile, boolean offline) throws IOException, TimeoutException {
+        Map<String, Map<String, String>> traits = new LinkedHashMap<String, Map<String, String>>();
+        if (snapshotFile != null) {
+            traits.putAll(TraitSnapshot.open(snapshotFile, FishbaseMapping.getInstance()).getAll(groupNames));
+        }
+        if (traitsFile != null) {
+            traits.putAll(readTraits(traitsFile));
+        }
+        List<String> missing = new ArrayList<String>();
+        for (String groupName : groupNames) {
+            if (!traits.containsKey(groupName)) {
+                missing.add(groupName);
+            }
+        }
+        if (!offline && !missing.isEmpty()) {
+            long timeoutMillis = Settings.getLong("request.timeout.millis", 60000);
+            traits.putAll(TraitCache.getInstance().getAll(missing, WorkerPools.io(), timeoutMillis, timeoutMillis));
+        }
+        return traits;
+    }
+
+    // group name to trait name to value, e.g. {"ScomberomorusCavalla": {"species.lifespan.sp": "14"}}
+    static Map<String, Map<String, String>> readTraits(File traitsFile) throws IOException {
+        Map<String, Map<String, String>> traits = new ObjectMapper().readValue(traitsFile, new TypeReference<Map<String, Map<String, String>>>() {
+        });
+        return traits == null ? new LinkedHashMap<String, Map<String, String>>() : traits;
+    }
+
+    static void writeTraits(Map<String, Map<String, String>> traits, File traitsFile) throws IOException {
+        Map<String, Map<String, String>> sorted = new TreeMap<String, Map<String, String>>();
+        for (Map.Entry<String, Map<String, String>> group : traits.entrySet()) {
+            sorted.put(group.getKey(), group.getValue() == null ? null : new TreeMap<String, String>(group.getValue()));
+        }
+        FileUtils.forceMkdir(traitsFile.getAbsoluteFile().getParentFile());
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(traitsFile, sorted);
+    }
+
+    interface OutputWriter {
+        void write(File output) throws IOException;
+    }
+
+    static void writeConfig(final List<String> groupNames,
+                            Map<String, Map<String, String>> traits,
+                            final boolean sharedMap,
+                            File output,
+                            final ArchiveFormat format,
+                            final Compression compression) throws IOException {
+        final ValueFactory valueFactory = ConfigUtil.getProxyValueFactory(Arrays.asList(
+                ConfigUtil.getFishbaseValueFactory(traits),
+                ConfigUtil.getDefaultValueFactory()));
+        writeAtomically(output, new OutputWriter() {
+            @Override
+            public void write(File staged) throws IOException {
+                if (format == null) {
+                    try (StreamFactoryImpl dir = new StreamFactoryImpl(staged)) {
+                        try {
+                            ConfigUtil.generateConfigFor(SpeciesTable.of(groupNames), Config.LTL_GROUP_NAMES, dir, valueFactory, sharedMap);
+                        } catch (Throwable e) {
+                            dir.abort();
+                            throw e;
+                        }
+                    }
+                } else {
+                    try (OutputStream os = openArchive(staged)) {
+                        Config.asStream(groupNames, Config.LTL_GROUP_NAMES, valueFactory, sharedMap, format, compression).write(os);
+                    }
+                }
+            }
+        });
+    }
+
+    static void writeScenarios(final List<Scenario> scenarios,
+                               final Map<String, Map<String, String>> traits,
+                               File output,
+                               final ArchiveFormat format,
+                               final Compression compression) throws IOException {
+        writeAtomically(output, new OutputWriter() {
+            @Override
+            public void write(File staged) throws IOException {
+                if (format == null) {
+                    ConfigBatch.toDirectory(scenarios, traits, staged);
+                } else {
+                    try (OutputStream os = openArchive(staged)) {
+                        ConfigBatch.asStream(scenarios, traits, format, compression).write(os);
+                    }
+                }
+            }
+        });
+    }
+
+    // generated in a temporary directory next to output and renamed into place once complete, so a failed run leaves
+    // no partial output; into a directory that already exists, the generated files are renamed one by one
+    static void writeAtomically(File output, OutputWriter writer) throws IOException {
+        File target = output.getAbsoluteFile();
+        FileUtils.forceMkdir(target.getParentFile());
+        File staging = Files.createTempDirectory(target.getParentFile().toPath(), "." + target.getName() + "-").toFile();
+        try {
+            File generated = new File(staging, target.getName());
+            writer.write(generated);
+            if (generated.isDirectory() && target.isDirectory()) {
+                moveInto(generated, target);
+            } else {
+                Files.move(generated.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            FileUtils.deleteQuietly(staging);
+        }
+    }
+
+    private static void moveInto(File dir, File target) throws IOException {
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            File moved = new File(target, file.getName());
+            if (file.isDirectory() && moved.isDirectory()) {
+                moveInto(file, moved);
+            } else {
+                Files.move(file.toPath(), moved.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    private static OutputStream openArchive(File output) throws IOException {
+        FileUtils.forceMkdir(output.getAbsoluteFile().getParentFile());
+        return new BufferedOutputStream(new FileOutputStream(output), 64 * 1024);
+    }
+}
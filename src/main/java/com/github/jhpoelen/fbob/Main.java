@@ -1,16 +1,65 @@
 package com.github.jhpoelen.fbob;
 
+import org.glassfish.grizzly.http.CompressionConfig;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
     public static HttpServer startServer() {
         final ResourceConfig rc = new ResourceConfig().packages("com.github.jhpoelen.fbob");
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(getBaseURI()), rc);
+        final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(getBaseURI()), rc, false);
+        for (NetworkListener listener : server.getListeners()) {
+            configure(listener);
+        }
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to start server at [" + getBaseURI() + "]", e);
+        }
+        return server;
+    }
+
+    // unset settings keep the Grizzly defaults, except for the number of workers
+    static void configure(NetworkListener listener) {
+        TCPNIOTransport transport = listener.getTransport();
+        int workerThreads = WorkerPools.httpThreads();
+        // requests beyond the queue limit are refused rather than left waiting for a worker
+        transport.setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig().copy()
+                .setPoolName("fbob-http")
+                .setCorePoolSize(workerThreads)
+                .setMaxPoolSize(workerThreads)
+                .setQueueLimit(Settings.getInt("server.queue.limit", -1)));
+        int selectorThreads = Settings.getInt("server.selector.threads", -1);
+        if (selectorThreads > 0) {
+            transport.setSelectorRunnersCount(selectorThreads);
+        }
+        long writeTimeout = Settings.getLong("server.write.timeout.seconds", -1);
+        if (writeTimeout > 0) {
+            transport.setWriteTimeout(writeTimeout, TimeUnit.SECONDS);
+        }
+
+        listener.getKeepAlive().setIdleTimeoutInSeconds(Settings.getInt("server.keepalive.idle.seconds", 30));
+        listener.getKeepAlive().setMaxRequestsCount(Settings.getInt("server.keepalive.max.requests", 256));
+        int transactionTimeout = Settings.getInt("server.transaction.timeout.seconds", -1);
+        if (transactionTimeout > 0) {
+            listener.setTransactionTimeout(transactionTimeout);
+        }
+
+        // archives are compressed already, so only text responses like /metrics are worth compressing on the fly
+        if (Settings.getBoolean("server.compression", true)) {
+            CompressionConfig compression = listener.getCompressionConfig();
+            compression.setCompressionMode(CompressionConfig.CompressionMode.ON);
+            compression.setCompressionMinSize(Settings.getInt("server.compression.min.bytes", 1024));
+            compression.setCompressableMimeTypes("text/plain", "text/csv", "application/json");
+        }
     }
 
     public static String getBaseURI() {
@@ -19,6 +68,10 @@ public class Main {
     }
 
     public static void main(String[] args) throws IOException {
+        StaticArchive.getInstance();
+        for (String template : ConfigUtil.TEMPLATES) {
+            ResourceCatalog.getInstance().get(template).getDeflated();
+        }
         final HttpServer server = startServer();
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             @Override
@@ -26,12 +79,5 @@ public class Main {
                 server.shutdownNow();
             }
         }, "shutdownHook"));
-
-        try {
-            server.start();
-        } catch (Exception e) {
-            System.err.println("There was an error while starting Grizzly HTTP server.");
-        }
     }
 }
-
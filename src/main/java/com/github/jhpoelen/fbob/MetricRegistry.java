@@ -0,0 +1,236 @@
+package com.github.jhpoelen.fbob;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters, gauges and histograms kept in memory and rendered in the Prometheus text format
+public class MetricRegistry {
+
+    public static final double[] LATENCY_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    public static final double[] SIZE_BYTES = {1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024};
+
+    interface Sample {
+        double value();
+    }
+
+    private static final MetricRegistry INSTANCE = new MetricRegistry();
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    public static MetricRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    // labels are name/value pairs, e.g. counter("fbob_errors_total", "...", "endpoint", "ping")
+    public Counter counter(String name, String help, String... labels) {
+        Family family = familyFor(name, help, "counter");
+        String key = labelsOf(labels);
+        Metric metric = family.series.get(key);
+        if (metric == null) {
+            Metric existing = family.series.putIfAbsent(key, metric = new Counter());
+            metric = existing == null ? metric : existing;
+        }
+        return (Counter) metric;
+    }
+
+    public Histogram histogram(String name, String help, double[] bounds, String... labels) {
+        return histogram(name, help, bounds, 1, labels);
+    }
+
+    // a histogram in seconds that is fed nanoseconds, e.g. from System.nanoTime() differences
+    public Histogram timer(String name, String help, String... labels) {
+        return histogram(name, help, LATENCY_SECONDS, 1.0 / TimeUnit.SECONDS.toNanos(1), labels);
+    }
+
+    private Histogram histogram(String name, String help, double[] bounds, double scale, String... labels) {
+        Family family = familyFor(name, help, "histogram");
+        String key = labelsOf(labels);
+        Metric metric = family.series.get(key);
+        if (metric == null) {
+            Metric existing = family.series.putIfAbsent(key, metric = new Histogram(bounds, scale));
+            metric = existing == null ? metric : existing;
+        }
+        return (Histogram) metric;
+    }
+
+    // values owned elsewhere (e.g. cache statistics) are read when rendered; registering again replaces the sample
+    public void register(String name, String help, String type, Sample sample, String... labels) {
+        familyFor(name, help, type).series.put(labelsOf(labels), new SampleMetric(sample));
+    }
+
+    public void writeTo(StringBuilder out) {
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> series : new ConcurrentSkipListMap<String, Metric>(family.series).entrySet()) {
+                series.getValue().writeTo(out, family.name, series.getKey());
+            }
+        }
+    }
+
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+        writeTo(out);
+        return out.toString();
+    }
+
+    private Family familyFor(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family existing = families.putIfAbsent(name, family = new Family(name, help, type));
+            family = existing == null ? family : existing;
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("metric [" + name + "] is a [" + family.type + "], not a [" + type + "]");
+        }
+        return family;
+    }
+
+    static String labelsOf(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("expected label name/value pairs, but got [" + labels.length + "] values");
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            key.append(i == 0 ? "" : ",").append(labels[i]).append("=\"");
+            escape(key, labels[i + 1]);
+            key.append('"');
+        }
+        return key.toString();
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; value != null && i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static void writeSeries(StringBuilder out, String name, String labels, String extraLabel, double value) {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Metric> series = new ConcurrentHashMap<String, Metric>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Metric {
+        void writeTo(StringBuilder out, String name, String labels);
+    }
+
+    public static class Counter implements Metric {
+        private final LongAdder count = new LongAdder();
+
+        public void inc() {
+            count.increment();
+        }
+
+        public void inc(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            writeSeries(out, name, labels, null, count.sum());
+        }
+    }
+
+    public static class Histogram implements Metric {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        // observations are summed as recorded (e.g. nanos), and scaled to the unit of the bounds when rendered
+        private final LongAdder sum = new LongAdder();
+        private final double scale;
+
+        Histogram(double[] bounds, double scale) {
+            this.bounds = bounds;
+            this.scale = scale;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(long raw) {
+            double value = raw * scale;
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            if (bucket < buckets.length) {
+                buckets[bucket].increment();
+            }
+            count.increment();
+            sum.add(raw);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                writeSeries(out, name + "_bucket", labels, "le=\"" + format(bounds[i]) + "\"", cumulative);
+            }
+            long total = count.sum();
+            writeSeries(out, name + "_bucket", labels, "le=\"+Inf\"", Math.max(total, cumulative));
+            writeSeries(out, name + "_sum", labels, null, sum.sum() * scale);
+            writeSeries(out, name + "_count", labels, null, total);
+        }
+    }
+
+    private static class SampleMetric implements Metric {
+        private final Sample sample;
+
+        SampleMetric(Sample sample) {
+            this.sample = sample;
+        }
+
+        @Override
+        public void writeTo(StringBuilder out, String name, String labels) {
+            writeSeries(out, name, labels, null, sample.value());
+        }
+    }
+}
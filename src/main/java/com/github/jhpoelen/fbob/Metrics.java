@@ -0,0 +1,17 @@
+package com.github.jhpoelen.fbob;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+@Path("metrics")
+public class Metrics {
+
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public String metrics() {
+        return MetricRegistry.getInstance().toText();
+    }
+}
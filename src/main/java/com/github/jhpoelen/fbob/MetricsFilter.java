@@ -0,0 +1,95 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// times requests per endpoint until the last byte of the entity is written, which for archives is well after the response filter
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String START = MetricsFilter.class.getName() + ".start";
+    private static final String ENDPOINT = MetricsFilter.class.getName() + ".endpoint";
+    private static final String STATUS = MetricsFilter.class.getName() + ".status";
+
+    private static final AtomicInteger ACTIVE_STREAMS = new AtomicInteger();
+
+    static {
+        MetricRegistry.getInstance().register("fbob_http_active_streams", "Responses currently being written.", "gauge", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return ACTIVE_STREAMS.get();
+            }
+        });
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        request.setProperty(START, System.nanoTime());
+        request.setProperty(ENDPOINT, endpointOf(request.getUriInfo().getMatchedURIs()));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) throws IOException {
+        Object start = request.getProperty(START);
+        if (start != null) {
+            if (response.hasEntity()) {
+                request.setProperty(STATUS, response.getStatus());
+            } else {
+                record((String) request.getProperty(ENDPOINT), response.getStatus(), (Long) start, 0);
+            }
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Object start = context.getProperty(START);
+        if (start == null) {
+            context.proceed();
+        } else {
+            OutputStream os = context.getOutputStream();
+            CountingOutputStream counting = new CountingOutputStream(os);
+            context.setOutputStream(counting);
+            ACTIVE_STREAMS.incrementAndGet();
+            Object status = context.getProperty(STATUS);
+            boolean failed = true;
+            try {
+                context.proceed();
+                failed = false;
+            } finally {
+                ACTIVE_STREAMS.decrementAndGet();
+                context.setOutputStream(os);
+                record((String) context.getProperty(ENDPOINT), failed ? 500 : (status == null ? 200 : (Integer) status), (Long) start, counting.getByteCount());
+            }
+        }
+    }
+
+    // matched uris are limited to the paths of resources, unlike the request uri
+    static String endpointOf(List<String> matchedURIs) {
+        return matchedURIs == null || matchedURIs.isEmpty() ? "unmatched" : "/" + matchedURIs.get(matchedURIs.size() - 1);
+    }
+
+    static void record(String endpoint, int status, long startNanos, long bytes) {
+        MetricRegistry registry = MetricRegistry.getInstance();
+        registry.timer("fbob_http_request_duration_seconds", "Time from request to last byte written, by endpoint.", "endpoint", endpoint)
+                .observe(System.nanoTime() - startNanos);
+        if (bytes > 0) {
+            registry.counter("fbob_http_response_bytes_total", "Bytes of response entities written, by endpoint.", "endpoint", endpoint).inc(bytes);
+            registry.histogram("fbob_http_response_size_bytes", "Size of response entities, by endpoint.", MetricRegistry.SIZE_BYTES, "endpoint", endpoint).observe(bytes);
+        }
+        if (status >= 400) {
+            registry.counter("fbob_http_errors_total", "Responses with a 4xx or 5xx status, by endpoint and status.", "endpoint", endpoint, "status", Integer.toString(status)).inc();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+public class ParamWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+
+    private final OutputStream os;
+    private byte[] buffer;
+    private int position = 0;
+    private boolean firstValue = true;
+
+    public ParamWriter(OutputStream os) {
+        this.os = os;
+        byte[] reusable = BUFFERS.get();
+        if (reusable == null) {
+            reusable = new byte[BUFFER_SIZE];
+        } else {
+            BUFFERS.remove();
+        }
+        this.buffer = reusable;
+    }
+
+    public ParamWriter row() throws IOException {
+        return row(true);
+    }
+
+    public ParamWriter row(boolean leadingNewline) throws IOException {
+        if (leadingNewline) {
+            writeByte('\n');
+        }
+        firstValue = true;
+        return this;
+    }
+
+    public ParamWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            return this;
+        } else if (needsEscaping(value)) {
+            writeByte('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writeByte('"');
+                }
+                writeChar(value, i, c);
+                if (isSurrogatePair(value, i)) {
+                    i++;
+                }
+            }
+            writeByte('"');
+        } else {
+            writeRaw(value);
+        }
+        return this;
+    }
+
+    public ParamWriter value(int value) throws IOException {
+        separate();
+        writeInt(value);
+        return this;
+    }
+
+    public ParamWriter value(String prefix, int index) throws IOException {
+        value(prefix);
+        writeInt(index);
+        return this;
+    }
+
+    public ParamWriter values(List<String> values) throws IOException {
+        for (String value : values) {
+            value(value);
+        }
+        return this;
+    }
+
+    public ParamWriter raw(String text) throws IOException {
+        writeRaw(text);
+        return this;
+    }
+
+    public ParamWriter raw(byte[] bytes) throws IOException {
+        flushBuffer();
+        os.write(bytes);
+        return this;
+    }
+
+    // flushes into the wrapped stream and hands the buffer back for reuse, but leaves the wrapped stream open: callers
+    // close it once the file is complete, so a failure leaves it to the factory to discard rather than publish
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            flushBuffer();
+            os.flush();
+            BUFFERS.set(buffer);
+            buffer = null;
+        }
+    }
+
+    // same rule as StringEscapeUtils.escapeCsv
+    static boolean needsEscaping(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void separate() throws IOException {
+        if (firstValue) {
+            firstValue = false;
+        } else {
+            writeByte(';');
+        }
+    }
+
+    private void writeRaw(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            writeChar(text, i, c);
+            if (isSurrogatePair(text, i)) {
+                i++;
+            }
+        }
+    }
+
+    // a lone surrogate is written as '?' and leaves the next char to be written on its own, like String.getBytes
+    private static boolean isSurrogatePair(String text, int i) {
+        return Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1));
+    }
+
+    private void writeChar(String text, int i, char c) throws IOException {
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+        } else if (isSurrogatePair(text, i)) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            writeByte('?');
+        } else {
+            writeByte(0xE0 | (c >> 12));
+            writeByte(0x80 | ((c >> 6) & 0x3F));
+            writeByte(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            writeByte('0' + (value / divisor) % 10);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            os.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class ResourceCatalog {
+
+    public static final String BASE_PATH = "com/github/jhpoelen/fbob/" + Config.OSMOSE_CONFIG + "/";
+
+    private static final MetricRegistry.Counter DEFLATED_HITS = MetricRegistry.getInstance()
+            .counter("fbob_cache_hits_total", "Lookups answered from a cache, by cache.", "cache", "deflated_templates");
+    private static final MetricRegistry.Counter DEFLATED_MISSES = MetricRegistry.getInstance()
+            .counter("fbob_cache_misses_total", "Lookups that had to load a value, by cache.", "cache", "deflated_templates");
+
+    private static volatile ResourceCatalog instance;
+
+    private final Map<String, Entry> entries;
+
+    ResourceCatalog(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(new TreeMap<String, Entry>(entries));
+    }
+
+    public static ResourceCatalog getInstance() {
+        ResourceCatalog catalog = instance;
+        if (catalog == null) {
+            synchronized (ResourceCatalog.class) {
+                catalog = instance;
+                if (catalog == null) {
+                    try {
+                        catalog = load(ResourceCatalog.class.getClassLoader());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("failed to index [" + BASE_PATH + "]", e);
+                    }
+                    instance = catalog;
+                }
+            }
+        }
+        return catalog;
+    }
+
+    public Entry get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("no resource [" + BASE_PATH + name + "]");
+        }
+        return entry;
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    static ResourceCatalog load(ClassLoader classLoader) throws IOException {
+        Map<String, Entry> entries = new TreeMap<String, Entry>();
+        Enumeration<URL> roots = classLoader.getResources(StringUtils.removeEnd(BASE_PATH, "/"));
+        while (roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            if ("jar".equals(root.getProtocol())) {
+                indexJar(root, entries);
+            } else if ("file".equals(root.getProtocol())) {
+                try {
+                    indexDir(new File(root.toURI()), "", entries);
+                } catch (URISyntaxException e) {
+                    throw new IOException("invalid resource location [" + root + "]", e);
+                }
+            }
+        }
+        return new ResourceCatalog(entries);
+    }
+
+    private static void indexJar(URL root, Map<String, Entry> entries) throws IOException {
+        URLConnection connection = root.openConnection();
+        connection.setUseCaches(false);
+        try (JarFile jar = ((JarURLConnection) connection).getJarFile()) {
+            Enumeration<JarEntry> jarEntries = jar.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry jarEntry = jarEntries.nextElement();
+                String name = StringUtils.substringAfter(jarEntry.getName(), BASE_PATH);
+                if (!jarEntry.isDirectory() && StringUtils.startsWith(jarEntry.getName(), BASE_PATH) && !entries.containsKey(name)) {
+                    try (InputStream is = jar.getInputStream(jarEntry)) {
+                        entries.put(name, new Entry(name, IOUtils.toByteArray(is)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void indexDir(File dir, String prefix, Map<String, Entry> entries) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = prefix + file.getName();
+                if (file.isDirectory()) {
+                    indexDir(file, name + "/", entries);
+                } else if (!entries.containsKey(name)) {
+                    try (InputStream is = new FileInputStream(file)) {
+                        entries.put(name, new Entry(name, IOUtils.toByteArray(is)));
+                    }
+                }
+            }
+        }
+    }
+
+    public static class Entry {
+        private final String name;
+        private final byte[] bytes;
+        private final long crc;
+        private final ConcurrentMap<Integer, byte[]> deflated = new ConcurrentHashMap<Integer, byte[]>();
+
+        Entry(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            this.crc = crc32.getValue();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getResource() {
+            return BASE_PATH + name;
+        }
+
+        public int getSize() {
+            return bytes.length;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        public void writeTo(OutputStream os) throws IOException {
+            os.write(bytes);
+        }
+
+        // raw deflate stream (no zlib header), as stored in zip entries
+        public byte[] getDeflated() {
+            return getDeflated(Deflater.DEFAULT_COMPRESSION);
+        }
+
+        public byte[] getDeflated(int level) {
+            byte[] compressed = deflated.get(level);
+            if (compressed == null) {
+                DEFLATED_MISSES.inc();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Deflater deflater = new Deflater(level, true);
+                try (DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater)) {
+                    dos.write(bytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to deflate [" + name + "]", e);
+                } finally {
+                    deflater.end();
+                }
+                compressed = out.toByteArray();
+                byte[] existing = deflated.putIfAbsent(level, compressed);
+                compressed = existing == null ? compressed : existing;
+            } else {
+                DEFLATED_HITS.inc();
+            }
+            return compressed;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.jhpoelen.fbob;
+
+import au.com.bytecode.opencsv.CSVReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// one configuration of a batch: its functional groups plus parameter values that replace traits and defaults
+public class Scenario {
+
+    public String name;
+    public List<String> htlGroupName = new ArrayList<String>();
+    // parameter name (e.g. species.lifespan.sp) to value, for all groups
+    public Map<String, String> overrides = new HashMap<String, String>();
+    // group name to parameter name to value
+    public Map<String, Map<String, String>> groupOverrides = new HashMap<String, Map<String, String>>();
+
+    public Scenario() {
+    }
+
+    public Scenario(String name, List<String> htlGroupName) {
+        this.name = name;
+        this.htlGroupName = new ArrayList<String>(htlGroupName);
+    }
+
+    public ValueFactory getOverrideValueFactory() {
+        return ConfigUtil.getOverrideValueFactory(
+                overrides == null ? new HashMap<String, String>() : overrides,
+                groupOverrides == null ? new HashMap<String, Map<String, String>>() : groupOverrides);
+    }
+
+    // a JSON array of scenarios, e.g. [{"name": "warm", "htlGroupName": ["ScomberomorusCavalla"], "overrides": {"species.lifespan.sp": "12"}}]
+    public static List<Scenario> fromJson(InputStream is) throws IOException {
+        Scenario[] scenarios = new ObjectMapper().readValue(is, Scenario[].class);
+        return scenarios == null ? new ArrayList<Scenario>() : new ArrayList<Scenario>(Arrays.asList(scenarios));
+    }
+
+    // one row per group in a scenario: scenario,htlGroupName[,parameter name...] with optional per group parameter values
+    public static List<Scenario> fromCsv(InputStream is) throws IOException {
+        Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+        CSVReader reader = new CSVReader(new InputStreamReader(is, StandardCharsets.UTF_8), ',');
+        String[] header = reader.readNext();
+        if (header == null || header.length < 2) {
+            throw new IllegalArgumentException("expected csv header [scenario,htlGroupName,...]");
+        }
+        String[] line;
+        while ((line = reader.readNext()) != null) {
+            if (line.length < 2 || StringUtils.isBlank(line[1])) {
+                continue;
+            }
+            String scenarioName = StringUtils.trim(line[0]);
+            Scenario scenario = scenarios.get(scenarioName);
+            if (scenario == null) {
+                scenario = new Scenario(scenarioName, new ArrayList<String>());
+                scenarios.put(scenarioName, scenario);
+            }
+            String groupName = StringUtils.trim(line[1]);
+            scenario.htlGroupName.add(groupName);
+            for (int i = 2; i < line.length && i < header.length; i++) {
+                if (StringUtils.isNotBlank(line[i])) {
+                    Map<String, String> overridesForGroup = scenario.groupOverrides.get(groupName);
+                    if (overridesForGroup == null) {
+                        overridesForGroup = new HashMap<String, String>();
+                        scenario.groupOverrides.put(groupName, overridesForGroup);
+                    }
+                    overridesForGroup.put(StringUtils.trim(header[i]), StringUtils.trim(line[i]));
+                }
+            }
+        }
+        return new ArrayList<Scenario>(scenarios.values());
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class Settings {
+
+    private static volatile Properties file;
+
+    // system property "fbob.some.name" wins over environment variable "FBOB_SOME_NAME", which wins over "some.name" in the FBOB_CONFIG properties file
+    public static String get(String name, String defaultValue) {
+        String value = System.getProperty("fbob." + name);
+        if (StringUtils.isBlank(value)) {
+            value = System.getenv("FBOB_" + StringUtils.upperCase(StringUtils.replaceChars(name, '.', '_')));
+        }
+        if (StringUtils.isBlank(value)) {
+            value = getFile().getProperty(name);
+        }
+        return StringUtils.isBlank(value) ? defaultValue : StringUtils.trim(value);
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static Properties getFile() {
+        Properties properties = file;
+        if (properties == null) {
+            synchronized (Settings.class) {
+                properties = file;
+                if (properties == null) {
+                    properties = new Properties();
+                    String path = System.getProperty("fbob.config", System.getenv("FBOB_CONFIG"));
+                    if (StringUtils.isNotBlank(path)) {
+                        try (InputStream is = new FileInputStream(path)) {
+                            properties.load(is);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("failed to read settings from [" + path + "]", e);
+                        }
+                    }
+                    file = properties;
+                }
+            }
+        }
+        return properties;
+    }
+}
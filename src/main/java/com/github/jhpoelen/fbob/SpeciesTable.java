@@ -0,0 +1,49 @@
+package com.github.jhpoelen.fbob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// functional groups indexed by their OSMOSE species id (the N in "*.spN")
+public class SpeciesTable {
+
+    private final List<String> names;
+    private final Map<String, Integer> ids;
+
+    private SpeciesTable(List<String> names, Map<String, Integer> ids) {
+        this.names = Collections.unmodifiableList(names);
+        this.ids = Collections.unmodifiableMap(ids);
+    }
+
+    // ids follow the order of first appearance; a repeated group name refers to the species it first introduced
+    public static SpeciesTable of(List<String> groupNames) {
+        List<String> names = new ArrayList<String>(groupNames.size());
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (String groupName : groupNames) {
+            if (!ids.containsKey(groupName)) {
+                ids.put(groupName, names.size());
+                names.add(groupName);
+            }
+        }
+        return new SpeciesTable(names, ids);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public String nameOf(int id) {
+        return names.get(id);
+    }
+
+    public int idOf(String groupName) {
+        Integer id = ids.get(groupName);
+        return id == null ? -1 : id;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class StaticArchive implements ArchiveResponses.RangeWriter {
+
+    private static final ConcurrentMap<String, StaticArchive> INSTANCES = new ConcurrentHashMap<String, StaticArchive>();
+
+    private static final MetricRegistry.Counter HITS = MetricRegistry.getInstance()
+            .counter("fbob_cache_hits_total", "Lookups answered from a cache, by cache.", "cache", "static_archive");
+    private static final MetricRegistry.Counter MISSES = MetricRegistry.getInstance()
+            .counter("fbob_cache_misses_total", "Lookups that had to load a value, by cache.", "cache", "static_archive");
+
+    private final byte[] bytes;
+    private final String etag;
+
+    StaticArchive(byte[] bytes) {
+        this.bytes = bytes;
+        this.etag = "\"" + sha256Hex(bytes) + "\"";
+    }
+
+    public static StaticArchive getInstance() throws IOException {
+        return getInstance(ArchiveFormat.ZIP, Compression.DEFAULT);
+    }
+
+    public static StaticArchive getInstance(ArchiveFormat format, Compression compression) throws IOException {
+        String key = format.name() + "/" + compression.name();
+        StaticArchive archive = INSTANCES.get(key);
+        if (archive == null) {
+            synchronized (StaticArchive.class) {
+                archive = INSTANCES.get(key);
+                if (archive == null) {
+                    MISSES.inc();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    Config.toArchive(Config.getResources(), format.open(out, compression));
+                    archive = new StaticArchive(out.toByteArray());
+                    INSTANCES.put(key, archive);
+                    return archive;
+                }
+            }
+        }
+        HITS.inc();
+        return archive;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public long getLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public void write(OutputStream os, long offset, long length) throws IOException {
+        os.write(bytes, (int) offset, (int) length);
+        os.flush();
+    }
+
+    static String sha256Hex(byte[] bytes) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
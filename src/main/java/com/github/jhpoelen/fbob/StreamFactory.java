@@ -5,4 +5,10 @@ import java.io.OutputStream;
 
 interface StreamFactory {
     OutputStream outputStreamFor(String name) throws IOException;
+
+    default void fromTemplate(String name, ResourceCatalog.Entry template) throws IOException {
+        try (OutputStream os = outputStreamFor(name)) {
+            template.writeTo(os);
+        }
+    }
 }
@@ -1,15 +1,201 @@
 package com.github.jhpoelen.fbob;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class StreamFactoryImpl implements StreamFactory {
+// writes generated files below a directory, e.g. a job directory on shared storage; each file is written under a
+// temporary name next to it and renamed into place when closed, so readers never see a partial file. Callers close
+// each file once it is complete, which keeps a single file open at a time per writer however many are generated
+public class StreamFactoryImpl implements ArchiveStreamFactory {
 
-    private String baseDir = "target/";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
 
+    private final Path root;
+    private final Set<Path> dirs = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final Set<FileStream> open = Collections.newSetFromMap(new ConcurrentHashMap<FileStream, Boolean>());
+    private volatile boolean aborted = false;
+
+    public StreamFactoryImpl() {
+        this(new File("target"));
+    }
+
+    public StreamFactoryImpl(File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+    }
+
+    public File getRoot() {
+        return root.toFile();
+    }
+
+    // safe to call from several threads at once, e.g. one per scenario
     @Override
     public OutputStream outputStreamFor(String name) throws IOException {
-        return new FileOutputStream(baseDir + name);
+        Path target = resolve(name);
+        Path dir = target.getParent();
+        // only remembered once it exists, so a concurrent writer to the same directory never skips creating it
+        if (!dirs.contains(dir)) {
+            Files.createDirectories(dir);
+            dirs.add(dir);
+        }
+        FileStream stream = openTemp(dir, target);
+        open.add(stream);
+        return stream;
+    }
+
+    // unlike Files.createTempFile, which is owner-only, the file gets the default permissions it is published with
+    private FileStream openTemp(Path dir, Path target) throws IOException {
+        while (true) {
+            Path tmp = dir.resolve("." + target.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+            try {
+                return new FileStream(tmp, target, FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    @Override
+    public void fromTemplate(String name, ResourceCatalog.Entry template) throws IOException {
+        OutputStream os = outputStreamFor(name);
+        os.write(template.bytes(), 0, template.getSize());
+        os.close();
+    }
+
+    // files still open are discarded instead of published, including those closed later on
+    @Override
+    public void abort() {
+        aborted = true;
+        for (FileStream stream : new ArrayList<FileStream>(open)) {
+            stream.discard();
+        }
+    }
+
+    // publishes the files that callers left open, unless aborted
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FileStream stream : new ArrayList<FileStream>(open)) {
+            try {
+                if (aborted) {
+                    stream.discard();
+                } else {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    int openFiles() {
+        return open.size();
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path target = root.resolve(name).normalize();
+        if (!target.startsWith(root) || target.equals(root)) {
+            throw new IOException("[" + name + "] is not a file below [" + root + "]");
+        }
+        return target;
+    }
+
+    private class FileStream extends OutputStream {
+        private final Path tmp;
+        private final Path target;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean closed;
+
+        FileStream(Path tmp, Path target, FileChannel channel) {
+            this.tmp = tmp;
+            this.target = target;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.remaining()) {
+                drain();
+            }
+            if (length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes, offset, length));
+            } else {
+                buffer.put(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (aborted) {
+                discard();
+            } else if (!closed) {
+                closed = true;
+                open.remove(this);
+                try {
+                    try {
+                        drain();
+                    } finally {
+                        channel.close();
+                    }
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+
+        synchronized void discard() {
+            if (!closed) {
+                closed = true;
+                open.remove(this);
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // deleted anyway
+                }
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    // left for whoever cleans up the directory
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
     }
 }
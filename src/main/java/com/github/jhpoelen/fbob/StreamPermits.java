@@ -0,0 +1,89 @@
+package com.github.jhpoelen.fbob;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// bounds the number of generated archives in progress, by default to half of the http workers, so /ping and static downloads always find one
+public class StreamPermits {
+
+    private static final MetricRegistry.Counter REJECTED = MetricRegistry.getInstance()
+            .counter("fbob_archive_streams_rejected_total", "Archive requests answered with 503 because too many archives were streaming.");
+
+    private static volatile StreamPermits instance;
+
+    private final int maxStreams;
+    private final Semaphore permits;
+
+    StreamPermits(int maxStreams) {
+        this.maxStreams = maxStreams;
+        this.permits = new Semaphore(maxStreams);
+    }
+
+    public static StreamPermits getInstance() {
+        StreamPermits streamPermits = instance;
+        if (streamPermits == null) {
+            synchronized (StreamPermits.class) {
+                streamPermits = instance;
+                if (streamPermits == null) {
+                    final StreamPermits created = new StreamPermits(Settings.getInt("archive.max.streams", Math.max(1, WorkerPools.httpThreads() / 2)));
+                    MetricRegistry.getInstance().register("fbob_archive_streams_active", "Generated archives currently being prepared or streamed.", "gauge", new MetricRegistry.Sample() {
+                        @Override
+                        public double value() {
+                            return created.getActive();
+                        }
+                    });
+                    streamPermits = instance = created;
+                }
+            }
+        }
+        return streamPermits;
+    }
+
+    // fails fast with 503 rather than queueing, so clients can retry elsewhere or later
+    public Permit acquire() {
+        if (!permits.tryAcquire()) {
+            REJECTED.inc();
+            throw new WebApplicationException(Response
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", Settings.get("archive.retry.after.seconds", "5"))
+                    .entity("too many archives in progress, please retry later")
+                    .type("text/plain")
+                    .build());
+        }
+        return new Permit();
+    }
+
+    public int getActive() {
+        return maxStreams - permits.availablePermits();
+    }
+
+    // released at most once, however many of the paths racing to finish a request try
+    public class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+
+        // hands the permit to the stream, which gives it back once written
+        public StreamingOutput releasing(final StreamingOutput stream) {
+            return new StreamingOutput() {
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    try {
+                        stream.write(os);
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+// tar headers carry the entry size up front, so generated entries are buffered until the next one starts
+class TarStreamFactory implements ArchiveStreamFactory {
+
+    private final OutputStream out;
+    private final TarArchiveOutputStream tar;
+    private boolean aborted = false;
+    private final Date modified = new Date(ArchiveFormat.ENTRY_MODIFIED_MILLIS);
+
+    private String pendingName;
+    private ByteArrayOutputStream pending;
+
+    TarStreamFactory(OutputStream os) {
+        this.out = os;
+        this.tar = new TarArchiveOutputStream(os, "UTF-8");
+        this.tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        this.tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    @Override
+    public OutputStream outputStreamFor(String name) throws IOException {
+        closePending();
+        pendingName = name;
+        pending = new ByteArrayOutputStream();
+        return pending;
+    }
+
+    @Override
+    public void fromTemplate(String name, ResourceCatalog.Entry template) throws IOException {
+        closePending();
+        putEntry(name, template.bytes(), template.getSize());
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        pending = null;
+    }
+
+    // closing the underlying stream directly skips the tar trailer, and ends the deflater of a gzip stream
+    @Override
+    public void close() throws IOException {
+        if (aborted) {
+            out.close();
+            return;
+        }
+        try {
+            closePending();
+            tar.finish();
+        } finally {
+            tar.close();
+        }
+    }
+
+    private void closePending() throws IOException {
+        if (pending != null) {
+            putEntry(pendingName, pending.toByteArray(), pending.size());
+            pendingName = null;
+            pending = null;
+        }
+    }
+
+    private void putEntry(String name, byte[] bytes, int length) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(length);
+        entry.setModTime(modified);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes, 0, length);
+        tar.closeArchiveEntry();
+    }
+}
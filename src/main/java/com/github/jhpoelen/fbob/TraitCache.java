@@ -0,0 +1,451 @@
+package com.github.jhpoelen.fbob;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+public class TraitCache {
+
+    interface Loader {
+        Map<String, String> load(String groupName) throws IOException;
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static volatile TraitCache instance;
+    private static volatile ScheduledExecutorService persister;
+
+    private final Loader loader;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxEntries;
+    private final File store;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    // set by loads and cleared by flush, so the store is written at most once per period however many lookups miss
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final ConcurrentMap<String, CompletableFuture<Map<String, String>>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Map<String, String>>>();
+
+    public TraitCache(Loader loader, long ttlMillis, long negativeTtlMillis, int maxEntries, File store) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxEntries = maxEntries;
+        this.store = store;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean evict = size() > TraitCache.this.maxEntries;
+                if (evict) {
+                    evictions.incrementAndGet();
+                }
+                return evict;
+            }
+        };
+        restore();
+        if (store != null) {
+            long persistMillis = TimeUnit.SECONDS.toMillis(Settings.getLong("traits.cache.persist.seconds", 30));
+            persister().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            }, persistMillis, persistMillis, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            }, "fbob-cache-flush"));
+        }
+    }
+
+    private static ScheduledExecutorService persister() {
+        ScheduledExecutorService executor = persister;
+        if (executor == null) {
+            synchronized (TraitCache.class) {
+                executor = persister;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadScheduledExecutor(WorkerPools.daemonThreads("fbob-cache-persist"));
+                    persister = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    public static TraitCache getInstance() {
+        TraitCache cache = instance;
+        if (cache == null) {
+            synchronized (TraitCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    String storePath = Settings.get("traits.cache.file", null);
+                    cache = new TraitCache(fishbaseLoader(),
+                            TimeUnit.SECONDS.toMillis(Settings.getLong("traits.cache.ttl.seconds", TimeUnit.DAYS.toSeconds(7))),
+                            TimeUnit.SECONDS.toMillis(Settings.getLong("traits.cache.negative.ttl.seconds", TimeUnit.HOURS.toSeconds(1))),
+                            Settings.getInt("traits.cache.max.entries", 10000),
+                            storePath == null ? null : new File(storePath));
+                    register(cache, "traits");
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    static void register(final TraitCache cache, String name) {
+        MetricRegistry registry = MetricRegistry.getInstance();
+        registry.register("fbob_cache_hits_total", "Lookups answered from a cache, by cache.", "counter", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.getHits() + cache.getNegativeHits();
+            }
+        }, "cache", name);
+        registry.register("fbob_cache_misses_total", "Lookups that had to load a value, by cache.", "counter", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.getMisses();
+            }
+        }, "cache", name);
+        registry.register("fbob_cache_negative_hits_total", "Lookups answered by a cached absence of traits.", "counter", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.getNegativeHits();
+            }
+        }, "cache", name);
+        registry.register("fbob_cache_deduplicated_total", "Lookups that joined a load already in flight.", "counter", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.getDeduplicated();
+            }
+        }, "cache", name);
+        registry.register("fbob_cache_evictions_total", "Entries evicted to stay within the maximum size, by cache.", "counter", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.getEvictions();
+            }
+        }, "cache", name);
+        registry.register("fbob_cache_entries", "Entries currently in a cache.", "gauge", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return cache.size();
+            }
+        }, "cache", name);
+    }
+
+    public static Loader fishbaseLoader() {
+        return new Loader() {
+            @Override
+            public Map<String, String> load(String groupName) throws IOException {
+                try {
+                    return TraitFinder.findTraitsForGroup(groupName, FishbaseMapping.getInstance());
+                } catch (URISyntaxException e) {
+                    throw new IOException("failed to retrieve traits for [" + groupName + "]", e);
+                }
+            }
+        };
+    }
+
+    public Map<String, String> get(String groupName) throws IOException {
+        try {
+            return getAsync(groupName, DIRECT).get();
+        } catch (ExecutionException e) {
+            throw asIOException(groupName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while retrieving traits for [" + groupName + "]", e);
+        }
+    }
+
+    // concurrent lookups of the same species share a single in-flight load; failures reach all waiters but are not cached
+    public CompletableFuture<Map<String, String>> getAsync(final String groupName, Executor executor) {
+        final String key = TraitFinder.normalize(groupName);
+        Entry entry = cached(key);
+        CompletableFuture<Map<String, String>> lookup;
+        if (entry != null) {
+            (entry.traits.isEmpty() ? negativeHits : hits).incrementAndGet();
+            lookup = CompletableFuture.completedFuture(entry.traits);
+        } else {
+            final CompletableFuture<Map<String, String>> load = new CompletableFuture<Map<String, String>>();
+            lookup = inFlight.putIfAbsent(key, load);
+            if (lookup != null) {
+                deduplicated.incrementAndGet();
+            } else {
+                lookup = load;
+                misses.incrementAndGet();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            load(groupName, key, load);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.remove(key, load);
+                    load.completeExceptionally(e);
+                }
+            }
+        }
+        return lookup;
+    }
+
+    private void load(String groupName, String key, CompletableFuture<Map<String, String>> load) {
+        try {
+            Map<String, String> traits = loader.load(groupName);
+            Entry entry = new Entry(traits == null ? Collections.<String, String>emptyMap() : traits, System.currentTimeMillis());
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+            dirty.set(true);
+            inFlight.remove(key, load);
+            load.complete(entry.traits);
+        } catch (Throwable e) {
+            inFlight.remove(key, load);
+            load.completeExceptionally(e);
+        }
+
+    }
+
+    private Entry cached(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+                entries.remove(key);
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    public Map<String, Map<String, String>> getAll(List<String> groupNames, Executor executor, long callTimeoutMillis, long timeoutMillis) throws IOException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Map<String, Future<Map<String, String>>> pending = new LinkedHashMap<String, Future<Map<String, String>>>();
+        for (final String groupName : groupNames) {
+            if (!pending.containsKey(groupName)) {
+                pending.put(groupName, getAsync(groupName, executor));
+            }
+        }
+
+        Map<String, Map<String, String>> traitsByGroup = new HashMap<String, Map<String, String>>();
+        try {
+            for (Map.Entry<String, Future<Map<String, String>>> lookup : pending.entrySet()) {
+                long remaining = Math.min(callTimeoutMillis, deadline - System.currentTimeMillis());
+                try {
+                    traitsByGroup.put(lookup.getKey(), lookup.getValue().get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
+                } catch (ExecutionException e) {
+                    throw asIOException(lookup.getKey(), e.getCause());
+                } catch (TimeoutException e) {
+                    throw new TimeoutException("timed out retrieving traits for [" + lookup.getKey() + "]");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while retrieving traits", e);
+        }
+        return traitsByGroup;
+    }
+
+    // completes once every group is resolved, without blocking a thread while loads are in flight; like getAll, fails
+    // with a TimeoutException when a lookup takes longer than callTimeoutMillis or all of them longer than timeoutMillis
+    public CompletableFuture<Map<String, Map<String, String>>> getAllAsync(List<String> groupNames, Executor executor, long callTimeoutMillis, long timeoutMillis) {
+        final Map<String, CompletableFuture<Map<String, String>>> pending = new LinkedHashMap<String, CompletableFuture<Map<String, String>>>();
+        for (String groupName : groupNames) {
+            if (!pending.containsKey(groupName)) {
+                pending.put(groupName, within(getAsync(groupName, executor), callTimeoutMillis, "traits for [" + groupName + "]"));
+            }
+        }
+        List<CompletableFuture<?>> lookups = new ArrayList<CompletableFuture<?>>(pending.values());
+        return within(CompletableFuture
+                .allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .thenApply(new Function<Void, Map<String, Map<String, String>>>() {
+                    @Override
+                    public Map<String, Map<String, String>> apply(Void done) {
+                        Map<String, Map<String, String>> traitsByGroup = new HashMap<String, Map<String, String>>();
+                        for (Map.Entry<String, CompletableFuture<Map<String, String>>> lookup : pending.entrySet()) {
+                            traitsByGroup.put(lookup.getKey(), lookup.getValue().join());
+                        }
+                        return traitsByGroup;
+                    }
+                }), timeoutMillis, "traits");
+    }
+
+    // a copy of future that fails once timeoutMillis pass, so a shared in-flight load still completes for its other waiters
+    static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis, final String what) {
+        final CompletableFuture<T> bounded = new CompletableFuture<T>();
+        final ScheduledFuture<?> deadline = WorkerPools.timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                bounded.completeExceptionally(new TimeoutException("timed out retrieving " + what));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                deadline.cancel(false);
+                if (failure == null) {
+                    bounded.complete(value);
+                } else {
+                    bounded.completeExceptionally(failure);
+                }
+            }
+        });
+        return bounded;
+    }
+
+    private static IOException asIOException(String groupName, Throwable cause) {
+        return cause instanceof IOException
+                ? (IOException) cause
+                : new IOException("failed to retrieve traits for [" + groupName + "]", cause);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private void restore() {
+        if (store != null && store.exists()) {
+            try {
+                Map<String, Entry> stored = mapper.readValue(store, new TypeReference<Map<String, Entry>>() {
+                });
+                long now = System.currentTimeMillis();
+                synchronized (entries) {
+                    for (Map.Entry<String, Entry> storedEntry : stored.entrySet()) {
+                        Entry entry = storedEntry.getValue();
+                        if (entry != null && entry.traits != null && !isExpired(entry, now)) {
+                            entries.put(storedEntry.getKey(), new Entry(entry.traits, entry.loadedAt));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // a corrupt or outdated store only means a cold start
+                store.delete();
+            }
+        }
+    }
+
+    // writes the entries if any were loaded since the last flush
+    public void flush() throws IOException {
+        if (store != null && dirty.getAndSet(false)) {
+            try {
+                persist();
+            } catch (IOException e) {
+                dirty.set(true);
+                throw e;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // a failed write only costs a warm start on the next restart
+        }
+    }
+
+    private void persist() throws IOException {
+        if (store != null) {
+            Map<String, Entry> snapshot;
+            synchronized (entries) {
+                snapshot = new LinkedHashMap<String, Entry>(entries);
+            }
+            synchronized (store) {
+                File parent = store.getAbsoluteFile().getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                File tmp = File.createTempFile(store.getName(), ".tmp", parent);
+                mapper.writeValue(tmp, snapshot);
+                Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        long ttl = entry.traits.isEmpty() ? negativeTtlMillis : ttlMillis;
+        return now - entry.loadedAt > ttl;
+    }
+
+    public static class Entry {
+        public Map<String, String> traits;
+        public long loadedAt;
+
+        public Entry() {
+        }
+
+        Entry(Map<String, String> traits, long loadedAt) {
+            this.traits = Collections.unmodifiableMap(new HashMap<String, String>(traits));
+            this.loadedAt = loadedAt;
+        }
+    }
+}
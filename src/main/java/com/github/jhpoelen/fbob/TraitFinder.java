@@ -1,49 +1,125 @@
 package com.github.jhpoelen.fbob;
 
-import au.com.bytecode.opencsv.CSVReader;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.io.IOUtils;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class TraitFinder {
+    private static final ObjectReader READER = new ObjectMapper().reader();
+
     public static Map<String, String> mapProperties(String jsonString, InputStream mappingInputStream) throws IOException {
-        Map<String, String> speciesProperties = new HashMap<String, String>();
-        final JsonNode jsonNode = new ObjectMapper().readTree(jsonString);
-        final JsonNode data = jsonNode.get("data");
-        if (data != null && data.isArray() && data.size() > 0) {
-            final JsonNode firstHit = data.get(0);
-            final CSVReader reader = new CSVReader(new InputStreamReader(mappingInputStream), ',');
-            String[] line;
-            while ((line = reader.readNext()) != null) {
-                final String fishbaseColumnName = line[1];
-                if (line.length > 3 && StringUtils.isNotBlank(fishbaseColumnName)) {
-                    final JsonNode trait = firstHit.get(fishbaseColumnName);
-                    String value = null;
-                    if (trait != null) {
-                        value = trait.asText();
+        return mapProperties(new ByteArrayInputStream(jsonString.getBytes(StandardCharsets.UTF_8)), mappingInputStream);
+    }
+
+    public static Map<String, String> mapProperties(InputStream jsonInputStream, InputStream mappingInputStream) throws IOException {
+        return mapProperties(jsonInputStream, FishbaseMapping.load(mappingInputStream));
+    }
+
+    public static Map<String, String> mapProperties(InputStream jsonInputStream, FishbaseMapping mapping) throws IOException {
+        final Map<String, String> firstHit = firstHit(jsonInputStream, mapping.getColumns());
+        return firstHit == null ? new HashMap<String, String>() : mapping.apply(firstHit);
+    }
+
+    // streams to the first record of "data", keeping only the requested columns and skipping everything else
+    public static Map<String, String> firstHit(InputStream jsonInputStream, Set<String> columns) throws IOException {
+        List<Map<String, String>> records = records(jsonInputStream, columns, 1);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    // up to maxRecords records of "data", e.g. the growth estimates of all populations of a species
+    public static List<Map<String, String>> records(InputStream jsonInputStream, Set<String> columns, int maxRecords) throws IOException {
+        List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+        try (JsonParser parser = READER.getFactory().createParser(jsonInputStream)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                boolean done = false;
+                while (!done && parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String fieldName = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+                    if ("data".equals(fieldName) && token == JsonToken.START_ARRAY) {
+                        while (records.size() < maxRecords && parser.nextToken() == JsonToken.START_OBJECT) {
+                            records.add(columnsOf(parser, columns));
+                        }
+                        done = true;
+                    } else {
+                        parser.skipChildren();
                     }
-                    final String propertyName = line[2];
-                    final String defaultValue = line[3];
-                    speciesProperties.put(propertyName, value == null ? defaultValue : value);
                 }
             }
         }
-        return speciesProperties;
+        return records;
+    }
+
+    private static Map<String, String> columnsOf(JsonParser parser, Set<String> columns) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String column = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if (columns.contains(column)) {
+                values.put(column, textOf(parser, token));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
     }
 
+    // same text as JsonNode.asText() on a tree built by a default ObjectMapper, except that null stays null
+    private static String textOf(JsonParser parser, JsonToken token) throws IOException {
+        String text;
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                text = parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                        ? parser.getBigIntegerValue().toString()
+                        : Long.toString(parser.getLongValue());
+                break;
+            case VALUE_NUMBER_FLOAT:
+                text = Double.toString(parser.getDoubleValue());
+                break;
+            case VALUE_NULL:
+                text = null;
+                break;
+            case START_OBJECT:
+            case START_ARRAY:
+                parser.skipChildren();
+                text = "";
+                break;
+            default:
+                text = parser.getText();
+        }
+        return text;
+    }
+
+    public static final String FISHBASE_URL = "https://fishbase.ropensci.org";
+
     public static URI uriForFishbaseSpeciesQuery(String query) throws URISyntaxException {
-        return new URI("https", "fishbase.ropensci.org", "/species", query, null);
+        return uriForFishbaseQuery(FishbaseTables.SPECIES, query);
+    }
+
+    public static URI uriForFishbaseQuery(String table, String query) throws URISyntaxException {
+        URI base = new URI(Settings.get("fishbase.url", FISHBASE_URL));
+        return new URI(base.getScheme(), base.getAuthority(), StringUtils.removeEnd(base.getPath(), "/") + "/" + table, query, null);
+    }
+
+    public static String normalize(String groupName) {
+        String query = queryForSpecies(groupName);
+        return StringUtils.isBlank(query) ? StringUtils.trim(groupName) : query;
     }
 
     public static String queryForSpecies(String htlGroupName) {
@@ -64,12 +140,38 @@ public class TraitFinder {
     }
 
     public static Map<String, String> findTraitsForGroup(String groupName, InputStream fishbaseMapping) throws URISyntaxException, IOException {
+        return findTraitsForGroup(groupName, FishbaseMapping.load(fishbaseMapping));
+    }
+
+    public static Map<String, String> findTraitsForGroup(String groupName, final FishbaseMapping mapping) throws URISyntaxException, IOException {
+        return findTraitsForGroup(groupName, mapping, FishbaseTables.getInstance());
+    }
+
+    // the species record names the SpecCode by which the other tables are fetched, so traits take two round trips
+    public static Map<String, String> findTraitsForGroup(String groupName, final FishbaseMapping mapping, FishbaseTables tables) throws URISyntaxException, IOException {
         Map<String, String> speciesProperties = new HashMap<String, String>();
         final String query = queryForSpecies(groupName);
         if (StringUtils.isNotBlank(query)) {
             final URI uri = uriForFishbaseSpeciesQuery(query);
-            final String jsonString = IOUtils.toString(uri, "UTF-8");
-            speciesProperties.putAll(mapProperties(jsonString, fishbaseMapping));
+            final Set<String> columns = new HashSet<String>(mapping.getColumns());
+            columns.add(FishbaseTables.SPEC_CODE);
+            Map<String, String> columnValues = FishbaseClient.getInstance().get(uri, new FishbaseClient.BodyReader<Map<String, String>>() {
+                @Override
+                public Map<String, String> read(InputStream is) throws IOException {
+                    return firstHit(is, columns);
+                }
+            });
+            if (columnValues != null) {
+                String specCode = columnValues.get(FishbaseTables.SPEC_CODE);
+                if (StringUtils.isNotBlank(specCode)) {
+                    for (Map.Entry<String, String> column : tables.columnsFor(specCode).entrySet()) {
+                        if (column.getValue() != null) {
+                            columnValues.put(column.getKey(), column.getValue());
+                        }
+                    }
+                }
+                speciesProperties.putAll(mapping.apply(columnValues));
+            }
         }
         return speciesProperties;
     }
@@ -0,0 +1,418 @@
+package com.github.jhpoelen.fbob;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// FishBase columns of every species, imported from local table dumps into a memory mapped file, so traits are
+// looked up without a network round trip. The file holds:
+//   magic, column count, species count, columns (length prefixed utf-8),
+//   one record offset per species sorted by key, then records of key and column values (length -1 for missing values)
+public class TraitSnapshot {
+
+    private static final byte[] MAGIC = "FBOBTRT1".getBytes(StandardCharsets.US_ASCII);
+    private static final Pattern GROUP_NAME = Pattern.compile("([A-Z][a-z]+)([A-Z][a-z]+)");
+    private static final String SPECIES_TABLE = "species";
+    private static final String SPEC_CODE = "SpecCode";
+
+    private static final MetricRegistry.Counter RELOADS = MetricRegistry.getInstance()
+            .counter("fbob_trait_snapshot_loads_total", "Trait snapshots mapped, on start or because the file changed.");
+    private static final MetricRegistry.Counter RELOAD_FAILURES = MetricRegistry.getInstance()
+            .counter("fbob_trait_snapshot_load_failures_total", "Trait snapshots that could not be read; the previous one stays in use.");
+
+    private static final AtomicReference<TraitSnapshot> CURRENT = new AtomicReference<TraitSnapshot>();
+    private static volatile boolean watching;
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final ByteBuffer buffer;
+    private final FishbaseMapping mapping;
+    private final List<String> columns;
+    private final int speciesCount;
+    private final int indexOffset;
+
+    TraitSnapshot(File file, long lastModified, ByteBuffer buffer, FishbaseMapping mapping) throws IOException {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = buffer.capacity();
+        this.buffer = buffer;
+        this.mapping = mapping;
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            ByteBuffer header = buffer.duplicate();
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("[" + file + "] is not a trait snapshot");
+            }
+            int columnCount = header.getInt();
+            this.speciesCount = header.getInt();
+            List<String> names = new ArrayList<String>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                names.add(stringAt(header.position()));
+                header.position(header.position() + 2 + header.getShort(header.position()));
+            }
+            this.columns = Collections.unmodifiableList(names);
+            this.indexOffset = header.position();
+            if (indexOffset + 4L * speciesCount > length) {
+                throw new IOException("[" + file + "] is truncated");
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("failed to read trait snapshot [" + file + "]", e);
+        }
+    }
+
+    public static TraitSnapshot open(File file, FishbaseMapping mapping) throws IOException {
+        long lastModified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed, and after the file is replaced
+            return new TraitSnapshot(file, lastModified, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), mapping);
+        }
+    }
+
+    // the snapshot named by traits.snapshot.file, swapped for a new one when the file changes; null if there is none
+    public static TraitSnapshot current() {
+        if (!watching) {
+            synchronized (TraitSnapshot.class) {
+                if (!watching) {
+                    final String path = Settings.get("traits.snapshot.file", null);
+                    if (path != null) {
+                        reloadIfChanged(new File(path));
+                        long pollSeconds = Settings.getLong("traits.snapshot.poll.seconds", 30);
+                        Executors.newSingleThreadScheduledExecutor(WorkerPools.daemonThreads("fbob-snapshot")).scheduleWithFixedDelay(new Runnable() {
+                            @Override
+                            public void run() {
+                                reloadIfChanged(new File(path));
+                            }
+                        }, pollSeconds, pollSeconds, TimeUnit.SECONDS);
+                        MetricRegistry.getInstance().register("fbob_trait_snapshot_species", "Species in the trait snapshot in use.", "gauge", new MetricRegistry.Sample() {
+                            @Override
+                            public double value() {
+                                TraitSnapshot snapshot = CURRENT.get();
+                                return snapshot == null ? 0 : snapshot.size();
+                            }
+                        });
+                    }
+                    watching = true;
+                }
+            }
+        }
+        return CURRENT.get();
+    }
+
+    // requests already holding the previous snapshot finish with it, new requests get the new one
+    static boolean reloadIfChanged(File file) {
+        TraitSnapshot loaded = CURRENT.get();
+        if (!file.isFile()
+                || (loaded != null && loaded.file.equals(file) && loaded.lastModified == file.lastModified() && loaded.length == file.length())) {
+            return false;
+        }
+        try {
+            CURRENT.set(open(file, FishbaseMapping.getInstance()));
+            RELOADS.inc();
+            return true;
+        } catch (IOException e) {
+            RELOAD_FAILURES.inc();
+            return false;
+        }
+    }
+
+    static void use(TraitSnapshot snapshot) {
+        CURRENT.set(snapshot);
+    }
+
+    // e.g. "scomberomorus cavalla" for ScomberomorusCavalla, as species are queried on FishBase
+    public static String keyOf(String groupName) {
+        Matcher matcher = GROUP_NAME.matcher(StringUtils.defaultString(groupName));
+        return matcher.find() ? keyOf(matcher.group(1), matcher.group(2)) : null;
+    }
+
+    static String keyOf(String genus, String species) {
+        return StringUtils.lowerCase(StringUtils.trim(genus) + " " + StringUtils.trim(species));
+    }
+
+    public int size() {
+        return speciesCount;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    // traits as they would be found on FishBase, or null for species that are not in the snapshot
+    public Map<String, String> get(String groupName) {
+        String key = keyOf(groupName);
+        int record = key == null ? -1 : find(key.getBytes(StandardCharsets.UTF_8));
+        if (record < 0) {
+            return null;
+        }
+        int position = record + 2 + buffer.getShort(record);
+        Map<String, String> columnValues = new HashMap<String, String>();
+        for (String column : columns) {
+            short valueLength = buffer.getShort(position);
+            if (valueLength >= 0) {
+                columnValues.put(column, stringAt(position));
+            }
+            position += 2 + Math.max(0, valueLength);
+        }
+        return mapping.apply(columnValues);
+    }
+
+    public Map<String, Map<String, String>> getAll(List<String> groupNames) {
+        Map<String, Map<String, String>> traits = new HashMap<String, Map<String, String>>();
+        for (String groupName : groupNames) {
+            Map<String, String> traitsForGroup = get(groupName);
+            if (traitsForGroup != null) {
+                traits.put(groupName, traitsForGroup);
+            }
+        }
+        return traits;
+    }
+
+    // binary search over the sorted record keys, comparing bytes in place
+    private int find(byte[] key) {
+        int low = 0;
+        int high = speciesCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = buffer.getInt(indexOffset + 4 * middle);
+            int compared = compareKeyAt(record, key);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKeyAt(int record, byte[] key) {
+        int keyLength = buffer.getShort(record);
+        for (int i = 0; i < keyLength && i < key.length; i++) {
+            int compared = (buffer.get(record + 2 + i) & 0xFF) - (key[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return keyLength - key.length;
+    }
+
+    private String stringAt(int position) {
+        byte[] bytes = new byte[buffer.getShort(position)];
+        ByteBuffer value = buffer.duplicate();
+        value.position(position + 2);
+        value.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // reads <table>.csv dumps (e.g. species.csv, popgrowth.csv) for the tables in the mapping, combining the rows of
+    // a species in each table like FishbaseTables does for FishBase responses; tables without a dump are skipped
+    public static int importFrom(File dumpDir, FishbaseMapping mapping, File snapshotFile) throws IOException {
+        Map<String, String> keyBySpecCode = new HashMap<String, String>();
+        try (CSVReader reader = readerFor(new File(dumpDir, SPECIES_TABLE + ".csv"))) {
+            String[] header = reader.readNext();
+            int specCode = indexOf(header, SPEC_CODE);
+            int genus = indexOf(header, "Genus");
+            int species = indexOf(header, "Species");
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                if (line.length == header.length) {
+                    keyBySpecCode.put(StringUtils.trim(line[specCode]), keyOf(line[genus], line[species]));
+                }
+            }
+        }
+
+        List<String> columns = new ArrayList<String>(mapping.getColumns());
+        SortedMap<String, String[]> valuesByKey = new TreeMap<String, String[]>(new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareBytes(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        for (String key : keyBySpecCode.values()) {
+            valuesByKey.put(key, new String[columns.size()]);
+        }
+        for (String table : mapping.getTables()) {
+            File dump = new File(dumpDir, table + ".csv");
+            if (dump.isFile()) {
+                importTable(dump, FishbaseTables.aggregateFor(table), mapping.getColumns(table), columns, keyBySpecCode, valuesByKey);
+            }
+        }
+        write(valuesByKey, columns, snapshotFile);
+        return valuesByKey.size();
+    }
+
+    private static void importTable(File dump,
+                                    FishbaseTables.Aggregate aggregate,
+                                    Set<String> tableColumns,
+                                    List<String> columns,
+                                    Map<String, String> keyBySpecCode,
+                                    Map<String, String[]> valuesByKey) throws IOException {
+        Map<String, List<Map<String, String>>> recordsByKey = new HashMap<String, List<Map<String, String>>>();
+        Set<String> requested = new HashSet<String>(tableColumns);
+        requested.addAll(FishbaseTables.DATE_COLUMNS);
+        try (CSVReader reader = readerFor(dump)) {
+            String[] header = reader.readNext();
+            int specCode = indexOf(header, SPEC_CODE);
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                String key = line.length == header.length ? keyBySpecCode.get(StringUtils.trim(line[specCode])) : null;
+                if (key != null) {
+                    Map<String, String> record = new HashMap<String, String>();
+                    for (int i = 0; i < header.length; i++) {
+                        if (requested.contains(StringUtils.trim(header[i]))) {
+                            record.put(StringUtils.trim(header[i]), textOf(line[i]));
+                        }
+                    }
+                    if (!recordsByKey.containsKey(key)) {
+                        recordsByKey.put(key, new ArrayList<Map<String, String>>());
+                    }
+                    recordsByKey.get(key).add(record);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Map<String, String>>> records : recordsByKey.entrySet()) {
+            String[] values = valuesByKey.get(records.getKey());
+            for (Map.Entry<String, String> column : FishbaseTables.aggregate(records.getValue(), tableColumns, aggregate).entrySet()) {
+                values[columns.indexOf(column.getKey())] = column.getValue();
+            }
+        }
+    }
+
+    private static CSVReader readerFor(File dump) throws IOException {
+        return new CSVReader(new InputStreamReader(new FileInputStream(dump), StandardCharsets.UTF_8), ',');
+    }
+
+    private static int indexOf(String[] header, String column) throws IOException {
+        for (int i = 0; header != null && i < header.length; i++) {
+            if (StringUtils.equals(StringUtils.trim(header[i]), column)) {
+                return i;
+            }
+        }
+        throw new IOException("expected column [" + column + "] in " + (header == null ? "[]" : Arrays.asList(header)));
+    }
+
+    // numbers as FishBase json renders them, and NA or blank as missing
+    static String textOf(String value) {
+        String text = StringUtils.trim(value);
+        if (StringUtils.isBlank(text) || StringUtils.equals(text, "NA")) {
+            text = null;
+        } else if (text.matches("-?\\d+")) {
+            text = new BigInteger(text).toString();
+        } else if (NumberUtils.isNumber(text)) {
+            try {
+                text = Double.toString(Double.parseDouble(text));
+            } catch (NumberFormatException e) {
+                // e.g. hexadecimal, kept as is
+            }
+        }
+        return text;
+    }
+
+    // written next to the snapshot and renamed into place, so a server polling the file never maps a partial one
+    static void write(SortedMap<String, String[]> valuesByKey, List<String> columns, File snapshotFile) throws IOException {
+        ByteArrayOutputStream columnBytes = new ByteArrayOutputStream();
+        DataOutputStream columnOut = new DataOutputStream(columnBytes);
+        for (String column : columns) {
+            writeString(columnOut, column);
+        }
+        int recordsOffset = MAGIC.length + 4 + 4 + columnBytes.size() + 4 * valuesByKey.size();
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(recordBytes);
+        int[] offsets = new int[valuesByKey.size()];
+        int i = 0;
+        for (Map.Entry<String, String[]> species : valuesByKey.entrySet()) {
+            offsets[i++] = recordsOffset + recordBytes.size();
+            writeString(recordOut, species.getKey());
+            for (String value : species.getValue()) {
+                writeString(recordOut, value);
+            }
+        }
+
+        File parent = snapshotFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File tmp = File.createTempFile(snapshotFile.getName(), ".tmp", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+                out.write(MAGIC);
+                out.writeInt(columns.size());
+                out.writeInt(valuesByKey.size());
+                columnBytes.writeTo(out);
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                recordBytes.writeTo(out);
+            }
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > Short.MAX_VALUE) {
+                throw new IOException("value of [" + bytes.length + "] bytes is too long for a trait snapshot");
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            int compared = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TraitSnapshot [dir with species.csv, popgrowth.csv, ...] [snapshot file]");
+            System.exit(2);
+        }
+        int species = importFrom(new File(args[0]), FishbaseMapping.getInstance(), new File(args[1]));
+        System.out.println("wrote [" + species + "] species to [" + args[1] + "]");
+    }
+}
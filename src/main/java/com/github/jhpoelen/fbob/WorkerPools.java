@@ -0,0 +1,113 @@
+package com.github.jhpoelen.fbob;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkerPools {
+
+    private static volatile ExecutorService io;
+    private static volatile ExecutorService cpu;
+    private static volatile ExecutorService responses;
+    private static volatile ScheduledExecutorService timer;
+
+    public static ExecutorService io() {
+        ExecutorService pool = io;
+        if (pool == null) {
+            synchronized (WorkerPools.class) {
+                pool = io;
+                if (pool == null) {
+                    pool = Settings.getBoolean("io.virtual.threads", false) ? virtualThreadsOrNull() : null;
+                    if (pool == null) {
+                        pool = Executors.newFixedThreadPool(Settings.getInt("io.threads", 16), daemonThreads("fbob-io"));
+                    }
+                    io = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    public static ExecutorService cpu() {
+        ExecutorService pool = cpu;
+        if (pool == null) {
+            synchronized (WorkerPools.class) {
+                pool = cpu;
+                if (pool == null) {
+                    pool = Executors.newFixedThreadPool(cpuThreads(), daemonThreads("fbob-cpu"));
+                    cpu = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    // threads that write response entities to clients, which may block on slow readers for as long as a write
+    // timeout allows; unbounded as each one holds a stream permit, so there are at most archive.max.streams busy
+    public static ExecutorService responses() {
+        ExecutorService pool = responses;
+        if (pool == null) {
+            synchronized (WorkerPools.class) {
+                pool = responses;
+                if (pool == null) {
+                    pool = Executors.newCachedThreadPool(daemonThreads("fbob-response"));
+                    responses = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    // fires deadlines, e.g. to fail a lookup that takes too long; tasks are expected to return right away
+    public static ScheduledExecutorService timer() {
+        ScheduledExecutorService pool = timer;
+        if (pool == null) {
+            synchronized (WorkerPools.class) {
+                pool = timer;
+                if (pool == null) {
+                    ScheduledThreadPoolExecutor created = new ScheduledThreadPoolExecutor(1, daemonThreads("fbob-timer"));
+                    // most deadlines are cancelled long before they are due
+                    created.setRemoveOnCancelPolicy(true);
+                    pool = timer = created;
+                }
+            }
+        }
+        return pool;
+    }
+
+    public static int cpuThreads() {
+        return Settings.getInt("cpu.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // Grizzly defaults to two workers per core, which a couple of slow archive requests can use up entirely
+    public static int httpThreads() {
+        return Settings.getInt("server.worker.threads", Math.max(16, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    // virtual threads are only available on Java 21+ runtimes, while we still compile for Java 8
+    private static ExecutorService virtualThreadsOrNull() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
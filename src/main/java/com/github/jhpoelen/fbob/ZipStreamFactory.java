@@ -0,0 +1,44 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// deflates generated entries on the fly and splices in templates that were compressed once up front
+class ZipStreamFactory implements ArchiveStreamFactory {
+
+    private final ZipStreamWriter zip;
+    private final Compression compression;
+    private final boolean storeBinary;
+
+    ZipStreamFactory(OutputStream os, Compression compression, boolean storeBinary) {
+        this.zip = new ZipStreamWriter(os, compression.getLevel(), ArchiveFormat.ENTRY_MODIFIED_MILLIS);
+        this.compression = compression;
+        this.storeBinary = storeBinary;
+    }
+
+    @Override
+    public OutputStream outputStreamFor(String name) throws IOException {
+        return zip.putNextEntry(name);
+    }
+
+    @Override
+    public void fromTemplate(String name, ResourceCatalog.Entry template) throws IOException {
+        if (compression == Compression.STORE || (storeBinary && !StringUtils.endsWith(name, ".csv"))) {
+            zip.putStoredEntry(name, template.getCrc(), template.bytes());
+        } else {
+            zip.putDeflatedEntry(name, template.getCrc(), template.getSize(), template.getDeflated(compression.getLevel()));
+        }
+    }
+
+    @Override
+    public void abort() {
+        zip.abort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
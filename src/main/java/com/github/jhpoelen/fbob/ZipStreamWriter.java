@@ -0,0 +1,316 @@
+package com.github.jhpoelen.fbob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+// writes zip archives like ZipOutputStream, but can also splice in entries that were deflated ahead of time
+public class ZipStreamWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream out;
+    private final boolean store;
+    private final Deflater deflater;
+    private final byte[] deflateBuffer = new byte[8192];
+    private final int dosTime;
+    private final int dosDate;
+    private final List<CentralRecord> records = new ArrayList<CentralRecord>();
+    private final Set<String> names = new HashSet<String>();
+
+    private long written = 0;
+    private EntryStream current;
+    private StoredEntryStream currentStored;
+    private boolean closed = false;
+
+    public ZipStreamWriter(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, System.currentTimeMillis());
+    }
+
+    public ZipStreamWriter(OutputStream out, int level, long modifiedMillis) {
+        this.out = out;
+        this.store = level == Deflater.NO_COMPRESSION;
+        this.deflater = new Deflater(level, true);
+        // in UTC, so the same archive has the same bytes (and ETag) whatever the default time zone of the server
+        Calendar modified = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        modified.setTimeInMillis(modifiedMillis);
+        this.dosTime = modified.get(Calendar.HOUR_OF_DAY) << 11 | modified.get(Calendar.MINUTE) << 5 | modified.get(Calendar.SECOND) >> 1;
+        this.dosDate = Math.max(0, modified.get(Calendar.YEAR) - 1980) << 9 | (modified.get(Calendar.MONTH) + 1) << 5 | modified.get(Calendar.DAY_OF_MONTH);
+    }
+
+    // deflates whatever is written to the returned stream until the next entry is started
+    public OutputStream putNextEntry(String name) throws IOException {
+        closeEntry();
+        if (store) {
+            // stored entries cannot be followed by a data descriptor, so they are buffered to know crc and size up front
+            currentStored = new StoredEntryStream(name);
+            return currentStored;
+        }
+        CentralRecord record = startEntry(name, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, DEFLATED, 0, 0, 0);
+        deflater.reset();
+        current = new EntryStream(record);
+        return current;
+    }
+
+    public void putDeflatedEntry(String name, long crc, long size, byte[] deflated) throws IOException {
+        closeEntry();
+        startEntry(name, FLAG_UTF8, DEFLATED, crc, deflated.length, size);
+        write(deflated, 0, deflated.length);
+    }
+
+    public void putStoredEntry(String name, long crc, byte[] bytes) throws IOException {
+        closeEntry();
+        startEntry(name, FLAG_UTF8, STORED, crc, bytes.length, bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    public void closeEntry() throws IOException {
+        if (current != null) {
+            current.finish();
+            current = null;
+        }
+        if (currentStored != null) {
+            StoredEntryStream stored = currentStored;
+            currentStored = null;
+            putStoredEntry(stored.name, stored.crc.getValue(), stored.toByteArray());
+        }
+    }
+
+    public void finish() throws IOException {
+        if (!closed) {
+            closeEntry();
+            long centralDirectoryOffset = written;
+            ByteArrayOutputStream header = new ByteArrayOutputStream(46 + 64);
+            for (CentralRecord record : records) {
+                header.reset();
+                writeInt(header, CENTRAL_HEADER);
+                writeShort(header, VERSION);
+                writeShort(header, VERSION);
+                writeShort(header, record.flags);
+                writeShort(header, record.method);
+                writeShort(header, dosTime);
+                writeShort(header, dosDate);
+                writeInt(header, record.crc);
+                writeInt(header, record.compressedSize);
+                writeInt(header, record.size);
+                writeShort(header, record.name.length);
+                writeShort(header, 0);
+                writeShort(header, 0);
+                writeShort(header, 0);
+                writeShort(header, 0);
+                writeInt(header, 0);
+                writeInt(header, record.offset);
+                header.write(record.name);
+                write(header.toByteArray(), 0, header.size());
+            }
+            long centralDirectorySize = written - centralDirectoryOffset;
+            checkSize(written);
+            header.reset();
+            writeInt(header, END_OF_CENTRAL_DIRECTORY);
+            writeShort(header, 0);
+            writeShort(header, 0);
+            writeShort(header, records.size());
+            writeShort(header, records.size());
+            writeInt(header, centralDirectorySize);
+            writeInt(header, centralDirectoryOffset);
+            writeShort(header, 0);
+            write(header.toByteArray(), 0, header.size());
+            out.flush();
+            deflater.end();
+            closed = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    // releases the native deflater without writing the central directory, e.g. when the client disconnected
+    public void abort() {
+        closed = true;
+        current = null;
+        currentStored = null;
+        deflater.end();
+    }
+
+    private CentralRecord startEntry(String name, int flags, int method, long crc, long compressedSize, long size) throws IOException {
+        if (records.size() == MAX_ENTRIES) {
+            throw new IOException("zip archives without zip64 are limited to [" + MAX_ENTRIES + "] entries");
+        }
+        // like ZipOutputStream, as readers disagree on which of two entries with the same name they extract
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        checkSize(written);
+        CentralRecord record = new CentralRecord(name.getBytes(StandardCharsets.UTF_8), flags, method, written);
+        record.crc = crc;
+        record.compressedSize = compressedSize;
+        record.size = size;
+        records.add(record);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30 + record.name.length);
+        writeInt(header, LOCAL_HEADER);
+        writeShort(header, VERSION);
+        writeShort(header, flags);
+        writeShort(header, method);
+        writeShort(header, dosTime);
+        writeShort(header, dosDate);
+        writeInt(header, crc);
+        writeInt(header, compressedSize);
+        writeInt(header, size);
+        writeShort(header, record.name.length);
+        writeShort(header, 0);
+        header.write(record.name);
+        write(header.toByteArray(), 0, header.size());
+        return record;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    private static void checkSize(long size) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("zip archives without zip64 are limited to [" + MAX_SIZE + "] bytes");
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream os, int value) {
+        os.write(value & 0xFF);
+        os.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(ByteArrayOutputStream os, long value) {
+        writeShort(os, (int) (value & 0xFFFF));
+        writeShort(os, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private static class CentralRecord {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private final long offset;
+        private long crc;
+        private long compressedSize;
+        private long size;
+
+        CentralRecord(byte[] name, int flags, int method, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.offset = offset;
+        }
+    }
+
+    private static class StoredEntryStream extends ByteArrayOutputStream {
+        private final String name;
+        private final CRC32 crc = new CRC32();
+
+        StoredEntryStream(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            crc.update(b);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            crc.update(bytes, offset, length);
+            super.write(bytes, offset, length);
+        }
+    }
+
+    private class EntryStream extends OutputStream {
+        private final CentralRecord record;
+        private final CRC32 crc = new CRC32();
+        private final long start = written;
+        private long size = 0;
+
+        EntryStream(CentralRecord record) {
+            this.record = record;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (current != this) {
+                throw new IOException("zip entry [" + new String(record.name, StandardCharsets.UTF_8) + "] already closed");
+            }
+            if (length > 0) {
+                crc.update(bytes, offset, length);
+                size += length;
+                deflater.setInput(bytes, offset, length);
+                while (!deflater.needsInput()) {
+                    deflate();
+                }
+            }
+        }
+
+        // closing an entry stream is left to the writer, like ZipOutputStream entries
+        @Override
+        public void close() throws IOException {
+        }
+
+        void finish() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            record.crc = crc.getValue();
+            record.compressedSize = written - start;
+            record.size = size;
+            checkSize(record.compressedSize);
+            checkSize(size);
+            ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+            writeInt(descriptor, DATA_DESCRIPTOR);
+            writeInt(descriptor, record.crc);
+            writeInt(descriptor, record.compressedSize);
+            writeInt(descriptor, record.size);
+            ZipStreamWriter.this.write(descriptor.toByteArray(), 0, descriptor.size());
+        }
+
+        private void deflate() throws IOException {
+            int length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+            if (length > 0) {
+                ZipStreamWriter.this.write(deflateBuffer, 0, length);
+            }
+        }
+    }
+}
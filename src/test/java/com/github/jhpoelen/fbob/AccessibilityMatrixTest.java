@@ -0,0 +1,46 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class AccessibilityMatrixTest {
+
+    @Test
+    public void stages() {
+        AccessibilityMatrix matrix = AccessibilityMatrix.forSpecies(SpeciesTable.of(Arrays.asList("one", "two")), Arrays.asList("plankton"));
+        assertThat(matrix.size(), is(5));
+        assertThat(matrix.getStages().get(matrix.juvenileStageOf(1)), is("two < 0.0 year"));
+        assertThat(matrix.getStages().get(matrix.adultStageOf(1)), is("two > 0.0 year"));
+        assertThat(matrix.getStages().get(matrix.implicitStageOf(0)), is("plankton"));
+    }
+
+    @Test
+    public void sparseCoefficients() throws IOException {
+        AccessibilityMatrix matrix = AccessibilityMatrix.forSpecies(SpeciesTable.of(Arrays.asList("one")), Arrays.asList("plankton"));
+        matrix.set(matrix.implicitStageOf(0), matrix.adultStageOf(0), "0.8");
+        matrix.set(matrix.implicitStageOf(0), matrix.juvenileStageOf(0), "0.4");
+        matrix.set(matrix.juvenileStageOf(0), matrix.adultStageOf(0), "0.1");
+        assertThat(matrix.get(matrix.juvenileStageOf(0), matrix.adultStageOf(0)), is("0.1"));
+        assertThat(matrix.get(matrix.adultStageOf(0), matrix.adultStageOf(0)), is("0.0"));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ParamWriter writer = new ParamWriter(os)) {
+            matrix.writeTo(writer);
+        }
+        assertThat(os.toString("UTF-8"), is("v Prey / Predator >;one < 0.0 year;one > 0.0 year;plankton\n" +
+                "one < 0.0 year;0.0;0.1;0.0\n" +
+                "one > 0.0 year;0.0;0.0;0.0\n" +
+                "plankton;0.4;0.8;0.0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownStage() {
+        AccessibilityMatrix.forSpecies(SpeciesTable.of(Arrays.asList("one")), Arrays.asList("plankton")).set(3, 0, "1.0");
+    }
+}
@@ -0,0 +1,250 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ArchiveCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generateOnce() throws IOException {
+        ArchiveCache cache = new ArchiveCache(folder.newFolder("archives"), 1024);
+        AtomicInteger generated = new AtomicInteger();
+
+        Response first = cache.respond("abc", content("0123456789", generated), "config.zip", "application/zip", null, null, null);
+        assertThat(first.getStatus(), is(200));
+        assertThat(first.getHeaderString("ETag"), is("\"abc\""));
+        assertThat(first.getHeaderString("Content-Length"), is("10"));
+        assertThat(entityOf(first), is("0123456789"));
+
+        Response second = cache.respond("abc", content("0123456789", generated), "config.zip", "application/zip", null, null, null);
+        assertThat(entityOf(second), is("0123456789"));
+        assertThat(generated.get(), is(1));
+
+        Response notModified = cache.respond("abc", content("0123456789", generated), "config.zip", "application/zip", "\"abc\"", null, null);
+        assertThat(notModified.getStatus(), is(304));
+
+        Response partial = cache.respond("abc", content("0123456789", generated), "config.zip", "application/zip", null, "\"abc\"", "bytes=4-");
+        assertThat(partial.getStatus(), is(206));
+        assertThat(partial.getHeaderString("Content-Range"), is("bytes 4-9/10"));
+        assertThat(entityOf(partial), is("456789"));
+        assertThat(generated.get(), is(1));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        File dir = folder.newFolder("archives");
+        ArchiveCache cache = new ArchiveCache(dir, 20);
+        cache.put("a", content("0123456789", new AtomicInteger())).close();
+        cache.put("b", content("0123456789", new AtomicInteger())).close();
+        cache.get("a").close();
+        cache.put("c", content("0123456789", new AtomicInteger())).close();
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getTotalBytes(), is(20L));
+        assertThat(cache.get("b") == null, is(true));
+        assertThat(new File(dir, "b").exists(), is(false));
+        assertThat(textOf(cache.get("a")), is("0123456789"));
+        assertThat(textOf(cache.get("c")), is("0123456789"));
+    }
+
+    @Test
+    public void evictedWhileServed() throws IOException {
+        File dir = folder.newFolder("archives");
+        ArchiveCache cache = new ArchiveCache(dir, 10);
+        cache.put("a", content("0123456789", new AtomicInteger())).close();
+        Response served = cache.respond("a", content("0123456789", new AtomicInteger()), "config.zip", "application/zip", null, null, null);
+
+        cache.put("b", content("abcdefghij", new AtomicInteger())).close();
+        assertThat(new File(dir, "a").exists(), is(false));
+        assertThat(entityOf(served), is("0123456789"));
+    }
+
+    @Test
+    public void concurrentRequestsGenerateOnce() throws Exception {
+        final ArchiveCache cache = new ArchiveCache(folder.newFolder("archives"), 1024);
+        final AtomicInteger generated = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StreamingOutput slow = new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                generated.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                os.write("0123456789".getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> responses = new ArrayList<Future<String>>();
+            for (int i = 0; i < 4; i++) {
+                responses.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return entityOf(cache.respond("abc", slow, "config.zip", "application/zip", null, null, null));
+                    }
+                }));
+            }
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> response : responses) {
+                assertThat(response.get(5, TimeUnit.SECONDS), is("0123456789"));
+            }
+            assertThat(generated.get(), is(1));
+            assertThat(cache.size(), is(1));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedGenerationReachesWaiters() throws Exception {
+        final ArchiveCache cache = new ArchiveCache(folder.newFolder("archives"), 1024);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StreamingOutput failing = new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("kaboom");
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Callable<ArchiveCache.Entry> put = new Callable<ArchiveCache.Entry>() {
+                @Override
+                public ArchiveCache.Entry call() throws Exception {
+                    return cache.put("abc", failing);
+                }
+            };
+            Future<ArchiveCache.Entry> first = pool.submit(put);
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+            Future<ArchiveCache.Entry> second = pool.submit(put);
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<ArchiveCache.Entry> entry : Arrays.asList(first, second)) {
+                try {
+                    entry.get(5, TimeUnit.SECONDS);
+                    fail("expected generation to fail");
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause().getMessage(), is("kaboom"));
+                }
+            }
+            // not kept, so the next request generates again
+            assertThat(textOf(cache.put("abc", content("0123456789", new AtomicInteger()))), is("0123456789"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reloadFromDisk() throws IOException {
+        File dir = folder.newFolder("archives");
+        new ArchiveCache(dir, 1024).put("a", content("0123456789", new AtomicInteger())).close();
+        assertThat(new File(dir, "left-over.tmp").createNewFile(), is(true));
+
+        ArchiveCache reloaded = new ArchiveCache(dir, 1024);
+        assertThat(reloaded.size(), is(1));
+        try (ArchiveCache.Entry entry = reloaded.get("a")) {
+            assertThat(entry.getLength(), is(10L));
+        }
+        assertThat(new File(dir, "left-over.tmp").exists(), is(false));
+    }
+
+    @Test
+    public void keyOfRequestAndTraits() {
+        Map<String, Map<String, String>> traits = new HashMap<String, Map<String, String>>();
+        Map<String, String> traitsA = new HashMap<String, String>();
+        traitsA.put("species.lifespan.sp", "12");
+        traits.put("groupA", traitsA);
+
+        String key = ArchiveCache.keyOf(Arrays.asList("groupA", "groupB"), Config.LTL_GROUP_NAMES, traits, false, ArchiveFormat.ZIP, Compression.DEFAULT);
+        assertThat(ArchiveCache.keyOf(Arrays.asList("groupA", "groupB"), Config.LTL_GROUP_NAMES, traits, false, ArchiveFormat.ZIP, Compression.DEFAULT), is(key));
+        assertThat(ArchiveCache.keyOf(Arrays.asList("groupB", "groupA"), Config.LTL_GROUP_NAMES, traits, false, ArchiveFormat.ZIP, Compression.DEFAULT), not(key));
+        assertThat(ArchiveCache.keyOf(Arrays.asList("groupA", "groupB"), Config.LTL_GROUP_NAMES, traits, true, ArchiveFormat.ZIP, Compression.DEFAULT), not(key));
+        assertThat(ArchiveCache.keyOf(Arrays.asList("groupA", "groupB"), Config.LTL_GROUP_NAMES, traits, false, ArchiveFormat.TAR_GZ, Compression.DEFAULT), not(key));
+
+        traitsA.put("species.lifespan.sp", "13");
+        assertThat(ArchiveCache.keyOf(Arrays.asList("groupA", "groupB"), Config.LTL_GROUP_NAMES, traits, false, ArchiveFormat.ZIP, Compression.DEFAULT), not(key));
+    }
+
+    @Test
+    public void dirNames() {
+        assertThat(ArchiveCache.dirNameFor(null, null, "\"abc\""), is("dev"));
+        assertThat(ArchiveCache.dirNameFor("1.0", null, "\"abc\""), is("dev"));
+        String dirName = ArchiveCache.dirNameFor("1.0", "20240101000000000", "\"abc\"");
+        assertThat(dirName.startsWith("1.0-"), is(true));
+        assertThat(ArchiveCache.dirNameFor("1.0", "20240101000000000", "\"abc\""), is(dirName));
+        assertThat(ArchiveCache.dirNameFor("1.0", "20240101000000001", "\"abc\""), is(not(dirName)));
+        assertThat(ArchiveCache.dirNameFor("1.0", "20240101000000000", "\"abd\""), is(not(dirName)));
+    }
+
+    @Test
+    public void noManifestOutsideOfJar() throws IOException {
+        assertThat(ArchiveCache.manifestOf(ArchiveCacheTest.class) == null, is(true));
+        assertThat(ArchiveCache.manifestOf(Test.class).getValue("Manifest-Version"), is("1.0"));
+    }
+
+    private static StreamingOutput content(final String content, final AtomicInteger generated) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                generated.incrementAndGet();
+                os.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    private static String textOf(ArchiveCache.Entry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.write(out, 0, entry.getLength());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String entityOf(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
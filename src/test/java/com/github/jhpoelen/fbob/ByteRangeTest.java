@@ -0,0 +1,52 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ByteRangeTest {
+
+    @Test
+    public void closedRange() {
+        ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+        assertThat(range.getOffset(), is(0L));
+        assertThat(range.getLength(), is(100L));
+        assertThat(range.contentRange(1000), is("bytes 0-99/1000"));
+    }
+
+    @Test
+    public void openRange() {
+        ByteRange range = ByteRange.parse("bytes=900-", 1000);
+        assertThat(range.getOffset(), is(900L));
+        assertThat(range.getLength(), is(100L));
+    }
+
+    @Test
+    public void suffixRange() {
+        ByteRange range = ByteRange.parse("bytes=-10", 1000);
+        assertThat(range.getOffset(), is(990L));
+        assertThat(range.getLength(), is(10L));
+    }
+
+    @Test
+    public void endBeyondLength() {
+        ByteRange range = ByteRange.parse("bytes=990-2000", 1000);
+        assertThat(range.getLength(), is(10L));
+    }
+
+    @Test
+    public void unsatisfiable() {
+        assertThat(ByteRange.parse("bytes=1000-", 1000), is(ByteRange.UNSATISFIABLE));
+    }
+
+    @Test
+    public void ignored() {
+        assertThat(ByteRange.parse(null, 1000), is(nullValue()));
+        assertThat(ByteRange.parse("items=0-1", 1000), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=0-1,5-6", 1000), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=a-b", 1000), is(nullValue()));
+        assertThat(ByteRange.parse("bytes=5-2", 1000), is(nullValue()));
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.jhpoelen.fbob;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class ConfigAsyncTest {
+
+    private FishbaseStub fishbase;
+    private HttpServer server;
+    private WebTarget target;
+
+    @Before
+    public void setUp() throws Exception {
+        fishbase = new FishbaseStub();
+        System.setProperty("fbob.fishbase.url", fishbase.getBaseURI());
+        // fewer workers than slow requests in flight: blocking resources would leave none for /ping
+        System.setProperty("fbob.server.worker.threads", "2");
+        System.setProperty("fbob.archive.max.streams", "8");
+        server = Main.startServer();
+        Client c = ClientBuilder.newClient();
+        target = c.target(Main.getBaseURI());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdownNow();
+        fishbase.stop();
+        System.clearProperty("fbob.fishbase.url");
+        System.clearProperty("fbob.server.worker.threads");
+        System.clearProperty("fbob.archive.max.streams");
+        System.clearProperty("fbob.request.timeout.millis");
+        System.clearProperty("fbob.traits.lookup.timeout.millis");
+    }
+
+    @Test
+    public void slowUpstreamDoesNotHoldWorkers() throws Exception {
+        fishbase.setDelayMillis(1000);
+        List<Future<Response>> slow = new ArrayList<Future<Response>>();
+        for (String groupName : new String[]{"AsyncgenusFirst", "AsyncgenusSecond", "AsyncgenusThird"}) {
+            slow.add(target.path("osmose_config.zip").queryParam("htlGroupName", groupName).request().async().get());
+        }
+        Thread.sleep(200);
+
+        long start = System.currentTimeMillis();
+        assertThat(target.path("ping").request().get(String.class), is("pong"));
+        assertThat(System.currentTimeMillis() - start < 800, is(true));
+
+        for (Future<Response> response : slow) {
+            Response actual = response.get();
+            assertThat(actual.getStatus(), is(200));
+            assertZip(actual.readEntity(byte[].class));
+        }
+        assertThat(fishbase.getRequestCount(), is(3));
+    }
+
+    @Test
+    public void busyCpuPoolDoesNotHoldResponses() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < WorkerPools.cpuThreads(); i++) {
+            WorkerPools.cpu().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        try {
+            // the response is written from its own thread, which generates what no cpu worker picks up
+            Future<Response> response = target.path("osmose_config.zip").queryParam("htlGroupName", "BusygenusCpu").request().async().get();
+            Response actual = response.get(10, TimeUnit.SECONDS);
+            assertThat(actual.getStatus(), is(200));
+            assertZip(actual.readEntity(byte[].class));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void timeout() throws InterruptedException {
+        fishbase.setDelayMillis(3000);
+        System.setProperty("fbob.request.timeout.millis", "100");
+        Response actual = target.path("osmose_config.zip").queryParam("htlGroupName", "TimeoutgenusSlow").request().get();
+        assertThat(actual.getStatus(), is(504));
+        // the answer need not wait for the lookup to reach FishBase, which may still be connecting on a busy machine
+        long deadline = System.currentTimeMillis() + 2000;
+        while (fishbase.getRequestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(fishbase.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void stalledLookup() {
+        fishbase.setDelayMillis(3000);
+        System.setProperty("fbob.traits.lookup.timeout.millis", "200");
+        long start = System.currentTimeMillis();
+        Response actual = target.path("osmose_config.zip").queryParam("htlGroupName", "StalledgenusLookup").request().get();
+        // answered at the lookup deadline rather than the request timeout
+        assertThat(actual.getStatus(), is(504));
+        assertThat(System.currentTimeMillis() - start < 2000, is(true));
+    }
+
+    @Test
+    public void repeatedRequest() throws Exception {
+        WebTarget config = target.path("osmose_config.zip").queryParam("htlGroupName", "CachedgenusRepeated");
+        Response first = config.request().get();
+        assertThat(first.getStatus(), is(200));
+        byte[] bytes = first.readEntity(byte[].class);
+        assertZip(bytes);
+        String etag = first.getHeaderString("ETag");
+        assertThat(etag, is(notNullValue()));
+        assertThat(first.getHeaderString("Content-Length"), is(Integer.toString(bytes.length)));
+
+        Response notModified = config.request().header("If-None-Match", etag).get();
+        assertThat(notModified.getStatus(), is(304));
+
+        Response rest = config.request().header("If-Range", etag).header("Range", "bytes=100-").get();
+        assertThat(rest.getStatus(), is(206));
+        assertThat(rest.readEntity(byte[].class), is(Arrays.copyOfRange(bytes, 100, bytes.length)));
+    }
+
+    private static void assertZip(byte[] bytes) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bytes));
+        assertThat(zis.getNextEntry(), is(notNullValue()));
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+import static org.junit.matchers.JUnitMatchers.hasItems;
+
+public class ConfigBatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scenariosFromJson() throws IOException {
+        String json = "[{\"name\": \"warm\", \"htlGroupName\": [\"groupA\", \"groupB\"], \"overrides\": {\"species.lifespan.sp\": \"12\"}}," +
+                "{\"htlGroupName\": [\"groupC\"], \"groupOverrides\": {\"groupC\": {\"species.K.sp\": \"0.4\"}}}]";
+        List<Scenario> scenarios = Scenario.fromJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertThat(scenarios.size(), is(2));
+        assertThat(scenarios.get(0).name, is("warm"));
+        assertThat(scenarios.get(0).htlGroupName, is(Arrays.asList("groupA", "groupB")));
+        assertThat(scenarios.get(0).getOverrideValueFactory().valueForInGroup("species.lifespan.sp", "groupB"), is("12"));
+        assertThat(scenarios.get(1).getOverrideValueFactory().valueForInGroup("species.K.sp", "groupC"), is("0.4"));
+    }
+
+    @Test
+    public void scenariosFromCsv() throws IOException {
+        String csv = "scenario,htlGroupName,species.lifespan.sp\n" +
+                "warm,groupA,12\n" +
+                "warm,groupB,\n" +
+                "cold,groupA,8\n";
+        List<Scenario> scenarios = Scenario.fromCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        assertThat(scenarios.size(), is(2));
+        assertThat(scenarios.get(0).name, is("warm"));
+        assertThat(scenarios.get(0).htlGroupName, is(Arrays.asList("groupA", "groupB")));
+        ValueFactory warm = scenarios.get(0).getOverrideValueFactory();
+        assertThat(warm.valueForInGroup("species.lifespan.sp", "groupA"), is("12"));
+        assertThat(warm.valueForInGroup("species.lifespan.sp", "groupB") == null, is(true));
+        assertThat(scenarios.get(1).getOverrideValueFactory().valueForInGroup("species.lifespan.sp", "groupA"), is("8"));
+    }
+
+    @Test
+    public void unreadableCsvIsBadRequest() throws IOException {
+        // e.g. an upload cut off halfway
+        InputStream truncated = new SequenceInputStream(new ByteArrayInputStream("scenario,htlGroupName\nwarm,gr".getBytes(StandardCharsets.UTF_8)), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        try {
+            new ConfigBatch().batchFromCsv(null, truncated, null, null);
+            fail("expected a bad request");
+        } catch (WebApplicationException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
+    @Test
+    public void checkScenarios() {
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        scenarios.add(new Scenario(null, Arrays.asList("groupA")));
+        scenarios.add(new Scenario("warm", Arrays.asList("groupB")));
+        ConfigBatch.checkScenarios(scenarios);
+        assertThat(scenarios.get(0).name, is("scenario0"));
+
+        assertInvalid(Arrays.asList(new Scenario("../escape", Arrays.asList("groupA"))));
+        assertInvalid(Arrays.asList(new Scenario("warm", Arrays.asList("groupA")), new Scenario("warm", Arrays.asList("groupB"))));
+        assertInvalid(Arrays.asList(new Scenario("warm", new ArrayList<String>())));
+        assertInvalid(new ArrayList<Scenario>());
+    }
+
+    private static void assertInvalid(List<Scenario> scenarios) {
+        try {
+            ConfigBatch.checkScenarios(scenarios);
+            fail("expected scenarios to be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void batchArchive() throws IOException {
+        Scenario warm = new Scenario("warm", Arrays.asList("groupA", "groupB"));
+        warm.overrides.put("species.lifespan.sp", "12");
+        Scenario cold = new Scenario("cold", Arrays.asList("groupA"));
+        Map<String, String> coldA = new HashMap<String, String>();
+        coldA.put("species.lifespan.sp", "8");
+        cold.groupOverrides.put("groupA", coldA);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConfigBatch.asStream(Arrays.asList(warm, cold), new HashMap<String, Map<String, String>>(), ArchiveFormat.ZIP, Compression.DEFAULT).write(out);
+
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            entries.put(entry.getName(), new String(IOUtils.toByteArray(zis), StandardCharsets.UTF_8));
+        }
+
+        List<String> names = new ArrayList<String>(entries.keySet());
+        assertThat(names.subList(0, ConfigUtil.STATIC_TEMPLATES.size()), is(ConfigUtil.STATIC_TEMPLATES));
+        assertThat(names, hasItems("warm/osm_all-parameters.csv", "warm/osm_param-species.csv", "cold/osm_all-parameters.csv"));
+        for (String name : names) {
+            assertThat(name, name.startsWith("warm/") || name.startsWith("cold/") || ConfigUtil.STATIC_TEMPLATES.contains(name), is(true));
+        }
+        assertThat(names.contains("warm/osm_param-grid.csv"), is(false));
+        assertThat(names.indexOf("warm/osm_all-parameters.csv") < names.indexOf("cold/osm_all-parameters.csv"), is(true));
+
+        assertThat(entries.get("warm/osm_all-parameters.csv"), containsString("../osm_param-grid.csv"));
+        assertThat(entries.get("warm/osm_param-species.csv"), containsString("species.lifespan.sp0;12\nspecies.lifespan.sp1;12"));
+        assertThat(entries.get("cold/osm_param-species.csv"), containsString("species.lifespan.sp0;8"));
+        assertThat(Arrays.asList(entries.get("cold/osm_param-species.csv").split("\n")), hasItem("species.name.sp0;groupA"));
+    }
+
+    @Test
+    public void batchDirectory() throws IOException {
+        Scenario warm = new Scenario("warm", Arrays.asList("groupA", "groupB"));
+        warm.overrides.put("species.lifespan.sp", "12");
+        Scenario cold = new Scenario("cold", Arrays.asList("groupA"));
+
+        File root = folder.newFolder("jobs");
+        ConfigBatch.toDirectory(Arrays.asList(warm, cold), new HashMap<String, Map<String, String>>(), root);
+
+        for (String template : ConfigUtil.STATIC_TEMPLATES) {
+            assertThat(template, new File(root, template).isFile(), is(true));
+        }
+        assertThat(new File(root, "warm/osm_param-grid.csv").exists(), is(false));
+        assertThat(new File(root, "cold/maps").isDirectory(), is(true));
+        assertThat(FileUtils.readFileToString(new File(root, "warm/osm_all-parameters.csv"), StandardCharsets.UTF_8), containsString("../osm_param-grid.csv"));
+        assertThat(FileUtils.readFileToString(new File(root, "warm/osm_param-species.csv"), StandardCharsets.UTF_8), containsString("species.lifespan.sp1;12"));
+        assertThat(FileUtils.listFiles(root, new String[]{"tmp"}, true).isEmpty(), is(true));
+    }
+
+}
@@ -1,8 +1,11 @@
 package com.github.jhpoelen.fbob;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayInputStream;
@@ -12,13 +15,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.junit.matchers.JUnitMatchers.hasItem;
+import static org.junit.matchers.JUnitMatchers.containsString;
 import static org.junit.matchers.JUnitMatchers.hasItems;
 
 public class ConfigTest {
@@ -41,6 +47,37 @@ public class ConfigTest {
 
     }
 
+    @Test
+    public void archiveNotModified() throws IOException {
+        Response first = new Config().configArchive();
+        String etag = first.getHeaderString("ETag");
+        assertThat(etag, is(notNullValue()));
+
+        Response second = new Config().configArchive(etag, null, null);
+        assertThat(second.getStatus(), is(304));
+        assertThat(second.hasEntity(), is(false));
+        assertThat(second.getHeaderString("ETag"), is(etag));
+    }
+
+    @Test
+    public void archiveRange() throws IOException {
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        ((StreamingOutput) new Config().configArchive().getEntity()).write(full);
+
+        Response actual = new Config().configArchive(null, null, "bytes=10-19");
+        assertThat(actual.getStatus(), is(206));
+        assertThat(actual.getHeaderString("Content-Range"), is("bytes 10-19/" + full.size()));
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(partial);
+        assertThat(partial.toByteArray(), is(Arrays.copyOfRange(full.toByteArray(), 10, 20)));
+    }
+
+    @Test
+    public void archiveRangeNotSatisfiable() throws IOException {
+        Response actual = new Config().configArchive(null, null, "bytes=100000000-");
+        assertThat(actual.getStatus(), is(416));
+    }
+
     @Test
     public void listFiles() {
         Set<String> properties = Config.getResources();
@@ -85,8 +122,8 @@ public class ConfigTest {
                 "osm_param-init-pop.csv",
                 "grid-mask.csv",
                 "osm_param-movement.csv",
-                "maps/one0.csv",
-                "maps/two1.csv",
+                "maps/one_0.csv",
+                "maps/two_1.csv",
                 "osm_param-natural-mortality.csv",
                 "osm_param-output.csv",
                 "osm_param-predation.csv",
@@ -103,5 +140,106 @@ public class ConfigTest {
                 "osm_all-parameters.csv"));
     }
 
+    @Test
+    public void configForGroupNamesSharedMap() throws IOException {
+        final StreamingOutput streamingOutput = Config.asStream(Arrays.asList("one", "two"),
+                Arrays.asList("implicitOne", "implicitTwo"),
+                ConfigUtil.getDefaultValueFactory(),
+                true);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        streamingOutput.write(os);
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()));
+        ZipEntry entry;
+        List<String> names = new ArrayList<String>();
+        String movement = null;
+        while ((entry = zip.getNextEntry()) != null) {
+            names.add(entry.getName());
+            if ("osm_param-movement.csv".equals(entry.getName())) {
+                movement = IOUtils.toString(zip, "UTF-8");
+            }
+        }
+        assertThat(names, hasItem("maps/shared-map.csv"));
+        assertThat(names.contains("maps/one_0.csv"), is(false));
+        assertThat(movement, containsString("movement.map0.file;maps/shared-map.csv"));
+        assertThat(movement, containsString("movement.map1.file;maps/shared-map.csv"));
+    }
+
+    @Test
+    public void configForGroupNamesAsTarGz() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Config.asStream(Arrays.asList("one", "two"), Arrays.asList("implicitOne"), ConfigUtil.getDefaultValueFactory(),
+                false, ArchiveFormat.TAR_GZ, Compression.FAST).write(os);
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(new ByteArrayInputStream(os.toByteArray())));
+        TarArchiveEntry entry;
+        List<String> names = new ArrayList<String>();
+        while ((entry = tar.getNextTarEntry()) != null) {
+            names.add(entry.getName());
+            if ("osm_ltlbiomass.nc".equals(entry.getName())) {
+                assertThat(IOUtils.toByteArray(tar).length, is(ResourceCatalog.getInstance().get("osm_ltlbiomass.nc").getSize()));
+            } else if ("osm_param-starvation.csv".equals(entry.getName())) {
+                assertThat(IOUtils.toString(tar, "UTF-8"), is("mortality.starvation.rate.max.sp0;0.3\nmortality.starvation.rate.max.sp1;0.3"));
+            }
+        }
+        assertThat(names, hasItems("osm_param-species.csv", "maps/one_0.csv", "osm_ltlbiomass.nc"));
+    }
+
+    @Test
+    public void configForGroupNamesStored() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Config.asStream(Arrays.asList("one", "two"), Arrays.asList("implicitOne"), ConfigUtil.getDefaultValueFactory(),
+                false, ArchiveFormat.ZIP, Compression.STORE).write(os);
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()));
+        ZipEntry entry;
+        int entries = 0;
+        while ((entry = zip.getNextEntry()) != null) {
+            assertThat(entry.getMethod(), is(ZipEntry.STORED));
+            IOUtils.toByteArray(zip);
+            entries++;
+        }
+        assertThat(entries > 20, is(true));
+    }
+
+    @Test
+    public void configForGroupNamesIsRepeatable() throws IOException {
+        for (ArchiveFormat format : ArchiveFormat.values()) {
+            ByteArrayOutputStream first = new ByteArrayOutputStream();
+            Config.asStream(Arrays.asList("one", "two"), Arrays.asList("implicitOne"), ConfigUtil.getDefaultValueFactory(),
+                    false, format, Compression.DEFAULT).write(first);
+            ByteArrayOutputStream second = new ByteArrayOutputStream();
+            Config.asStream(Arrays.asList("one", "two"), Arrays.asList("implicitOne"), ConfigUtil.getDefaultValueFactory(),
+                    false, format, Compression.DEFAULT).write(second);
+            assertThat(format.name(), Arrays.equals(first.toByteArray(), second.toByteArray()), is(true));
+        }
+    }
+
+    @Test
+    public void archiveAsTar() throws IOException {
+        Response actual = new Config().configArchive(ArchiveFormat.TAR, Compression.DEFAULT, null, null, null);
+        assertThat(actual.getMediaType().toString(), is("application/x-tar"));
+        assertThat(actual.getHeaderString("Content-Disposition"), is("attachment; filename=osmose_config.tar"));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ((StreamingOutput) actual.getEntity()).write(os);
+
+        TarArchiveInputStream tar = new TarArchiveInputStream(new ByteArrayInputStream(os.toByteArray()));
+        int entries = 0;
+        while (tar.getNextTarEntry() != null) {
+            entries++;
+        }
+        assertThat(entries, is(Config.getResources().size()));
+    }
+
+    @Test
+    public void unknownFormat() throws IOException {
+        try {
+            new Config().configTemplate(null, null, null, "rar", null, null, null, null);
+            fail("expected unknown format to be rejected");
+        } catch (WebApplicationException e) {
+            assertThat(e.getResponse().getStatus(), is(400));
+        }
+    }
+
 
-}
+}
\ No newline at end of file
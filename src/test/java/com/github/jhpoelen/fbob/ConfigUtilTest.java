@@ -10,9 +10,13 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static junit.framework.Assert.assertEquals;
 import static org.hamcrest.CoreMatchers.not;
@@ -82,7 +86,7 @@ public class ConfigUtilTest {
         List<String> groupNames = Arrays.asList("groupOne", "groupTwo");
         StreamFactoryMemory factory = getTestFactory();
 
-        ConfigUtil.generateSpecies(groupNames, factory, getTestValueFactory());
+        ConfigUtil.generateSpecies(SpeciesTable.of(groupNames), factory, getTestValueFactory());
 
         String asExpected = "species.name.sp0;groupOne\nspecies.name.sp1;groupTwo\nspecies.egg.size.sp0;0.1\nspecies.egg.size.sp1;0.1\nspecies.egg.weight.sp0;0.0005386\nspecies.egg.weight.sp1;0.0005386\nspecies.K.sp0;0.0\nspecies.K.sp1;0.0\nspecies.length2weight.allometric.power.sp0;0.0\nspecies.length2weight.allometric.power.sp1;0.0\nspecies.length2weight.condition.factor.sp0;0.0\nspecies.length2weight.condition.factor.sp1;0.0\nspecies.lifespan.sp0;0\nspecies.lifespan.sp1;0\nspecies.lInf.sp0;0.0\nspecies.lInf.sp1;0.0\nspecies.maturity.size.sp0;0.0\nspecies.maturity.size.sp1;0.0\nspecies.relativefecundity.sp0;0\nspecies.relativefecundity.sp1;0\nspecies.sexratio.sp0;0.0\nspecies.sexratio.sp1;0.0\nspecies.t0.sp0;0.0\nspecies.t0.sp1;0.0\nspecies.vonbertalanffy.threshold.age.sp0;0.0\nspecies.vonbertalanffy.threshold.age.sp1;0.0\nspecies.length2weight.fl.sp0;false\nspecies.length2weight.fl.sp1;false";
         assertThat(getTestFactory().stringOutputFor("osm_param-species.csv"), is(asExpected));
@@ -94,12 +98,27 @@ public class ConfigUtilTest {
 
     @Test
     public void movementMapAgeRanges() throws IOException {
-        ConfigUtil.generateMaps(Arrays.asList("speciesOne", "speciesTwo"), getTestFactory(), getTestValueFactory());
+        ConfigUtil.generateMaps(SpeciesTable.of(Arrays.asList("speciesOne", "speciesTwo")), getTestFactory(), getTestValueFactory());
 
         assertThat(getTestFactory().stringOutputFor("grid-mask.csv"), is(notNullValue()));
         assertThat(getTestFactory().stringOutputFor("osm_param-movement.csv"), is(notNullValue()));
-        assertThat(getTestFactory().stringOutputFor("maps/speciesOne0.csv"), is(notNullValue()));
-        assertThat(getTestFactory().stringOutputFor("maps/speciesTwo1.csv"), is(notNullValue()));
+        assertThat(getTestFactory().stringOutputFor("maps/speciesOne_0.csv"), is(notNullValue()));
+        assertThat(getTestFactory().stringOutputFor("maps/speciesTwo_1.csv"), is(notNullValue()));
+    }
+
+    @Test
+    public void mapNamesOfSimilarGroups() throws IOException {
+        List<String> groupNames = new ArrayList<String>();
+        for (int i = 0; i < 12; i++) {
+            groupNames.add(i == 1 ? "A1" : i == 11 ? "A" : "group" + i);
+        }
+        assertThat(ConfigUtil.getMapName(1, "A1"), not(ConfigUtil.getMapName(11, "A")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArchiveStreamFactory zip = ArchiveFormat.ZIP.open(out, Compression.FAST)) {
+            ConfigUtil.generateMaps(SpeciesTable.of(groupNames), zip, getTestValueFactory());
+        }
+        assertThat(out.size() > 0, is(true));
     }
 
     @Test
@@ -108,7 +127,7 @@ public class ConfigUtilTest {
         groupNames.add("groupOne");
         groupNames.add("groupTwo");
 
-        ConfigUtil.generateFishingParametersFor(groupNames, factory);
+        ConfigUtil.generateFishingParametersFor(SpeciesTable.of(groupNames), factory);
 
         String expectedFishingParams = "\nmortality.fishing.rate.sp0;0.0\n" +
                 "mortality.fishing.rate.sp1;0.0\n" +
@@ -144,7 +163,7 @@ public class ConfigUtilTest {
     public void output() throws IOException {
         List<String> groupNames = Arrays.asList("groupNameOne", "groupNameTwo");
 
-        ConfigUtil.generateOutputParamsFor(groupNames, factory, getTestValueFactory());
+        ConfigUtil.generateOutputParamsFor(SpeciesTable.of(groupNames), factory, getTestValueFactory());
 
         assertThat(getTestFactory().stringOutputFor("osm_param-output.csv"), containsString("output.diet.stage.threshold.sp1"));
         assertThat(getTestFactory().stringOutputFor("osm_param-output.csv"), not(containsString("output.diet.stage.threshold.sp2")));
@@ -156,7 +175,7 @@ public class ConfigUtilTest {
     public void naturalMortality() throws IOException {
         List<String> groupNames = Arrays.asList("groupName1", "groupName2");
 
-        ConfigUtil.generateNaturalMortalityFor(groupNames, factory, getTestValueFactory());
+        ConfigUtil.generateNaturalMortalityFor(SpeciesTable.of(groupNames), factory, getTestValueFactory());
 
         String expected = "mortality.natural.larva.rate.file;null" +
                 "\nmortality.natural.larva.rate.sp0;0.0" +
@@ -172,7 +191,7 @@ public class ConfigUtilTest {
         List<String> groupNames = Arrays.asList("groupNameOne", "groupNameTwo");
         StreamFactoryMemory factory = getTestFactory();
 
-        ConfigUtil.generatePredationFor(groupNames, factory, getTestValueFactory());
+        ConfigUtil.generatePredationFor(SpeciesTable.of(groupNames), factory, getTestValueFactory());
         String expectedPredationParams = "predation.accessibility.file;predation-accessibility.csv" +
                 "\npredation.accessibility.stage.structure;age" +
                 "\npredation.accessibility.stage.threshold.sp0;0.0" +
@@ -212,7 +231,7 @@ public class ConfigUtilTest {
             }
         };
 
-        ConfigUtil.generatePredationAccessibilityFor(groupNames, implicitGroupNames, factory);
+        ConfigUtil.generatePredationAccessibilityFor(SpeciesTable.of(groupNames), implicitGroupNames, factory);
         // including the "implicit" functional groups
         String expectedPredationAccessibility = "v Prey / Predator >;groupNameOne < 0.0 year;groupNameOne > 0.0 year;groupNameTwo < 0.0 year;groupNameTwo > 0.0 year;Small_phytoplankton;Diatoms;Microzooplankton;Mesozooplankton;Meiofauna;Small_infauna;Small_mobile_epifauna;Bivalves;Echinoderms_and_large_gastropods\n" +
                 "groupNameOne < 0.0 year;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0;0.0\n" +
@@ -242,7 +261,7 @@ public class ConfigUtilTest {
     @Test
     public void starvation() throws IOException {
         List<String> groupNames = Arrays.asList("gOne", "gTwo");
-        ConfigUtil.generateStarvationFor(groupNames, factory);
+        ConfigUtil.generateStarvationFor(SpeciesTable.of(groupNames), factory);
 
         String expectedStarvation = "mortality.starvation.rate.max.sp0;0.3\n" +
                 "mortality.starvation.rate.max.sp1;0.3";
@@ -262,7 +281,7 @@ public class ConfigUtilTest {
         }};
 
 
-        ConfigUtil.generateSeasonalReproductionFor(groupNames, factory);
+        ConfigUtil.generateSeasonalReproductionFor(SpeciesTable.of(groupNames), factory);
 
         assertThat((getTestFactory()).stringOutputFor("osm_param-reproduction.csv"), is("reproduction.season.file.sp0;reproduction-seasonality-sp0.csv\nreproduction.season.file.sp1;reproduction-seasonality-sp1.csv"));
         String prefix = "Time (year);";
@@ -287,12 +306,57 @@ public class ConfigUtilTest {
         assertThat(getTestFactory().streamMap.keySet(), hasItems("osm_param-species.csv", "osm_param-starvation.csv"));
     }
 
+    @Test
+    public void generateConfigForDuplicateGroupNames() throws IOException {
+        List<String> groupNames = Arrays.asList("speciesA", "speciesB", "speciesA");
+
+        ConfigUtil.generateConfigFor(groupNames, Arrays.asList("planktonA"), getTestFactory(), ConfigUtil.getDefaultValueFactory());
+
+        assertThat(getTestFactory().stringOutputFor("osm_param-starvation.csv"), is("mortality.starvation.rate.max.sp0;0.3\nmortality.starvation.rate.max.sp1;0.3"));
+        assertThat(getTestFactory().stringOutputFor("osm_all-parameters.csv"), containsString("simulation.nspecies;2\n"));
+        assertThat(getTestFactory().streamMap.containsKey("reproduction-seasonality-sp2.csv"), is(false));
+    }
+
+    @Test
+    public void generateConfigForInParallel() throws IOException {
+        SpeciesTable species = SpeciesTable.of(Arrays.asList("speciesA", "speciesB", "speciesC"));
+        List<String> implicitGroupNames = Arrays.asList("planktonA", "planktonB");
+        OrderedStreamFactory sequential = new OrderedStreamFactory();
+        ConfigUtil.generateConfigFor(species, implicitGroupNames, sequential, ConfigUtil.getDefaultValueFactory(), false, "");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            OrderedStreamFactory parallel = new OrderedStreamFactory();
+            ConfigUtil.generateConfigFor(species, implicitGroupNames, parallel, ConfigUtil.getDefaultValueFactory(), false, "", executor);
+            assertThat(new ArrayList<String>(parallel.streamMap.keySet()), is(new ArrayList<String>(sequential.streamMap.keySet())));
+            for (String name : sequential.streamMap.keySet()) {
+                assertThat(name, parallel.streamMap.get(name).toByteArray(), is(sequential.streamMap.get(name).toByteArray()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void generateConfigForOnSaturatedExecutor() throws IOException {
+        final List<Runnable> neverRun = new ArrayList<Runnable>();
+        Executor saturated = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                neverRun.add(command);
+            }
+        };
+        ConfigUtil.generateConfigFor(SpeciesTable.of(Arrays.asList("speciesA")), Arrays.asList("planktonA"), getTestFactory(), ConfigUtil.getDefaultValueFactory(), false, "", saturated);
+        assertThat(neverRun.size() > 0, is(true));
+        assertThat(getTestFactory().stringOutputFor("osm_param-starvation.csv"), is("mortality.starvation.rate.max.sp0;0.3"));
+    }
+
     @Test
     public void generateAllParametersFor() throws IOException {
         List<String> groupNames = Arrays.asList("speciesA", "speciesB", "speciesC");
         List<String> implicitGroupNames = Arrays.asList("planktonA", "planktopB", "planktonC");
 
-        ConfigUtil.generateAllParametersFor(groupNames, implicitGroupNames, getTestFactory());
+        ConfigUtil.generateAllParametersFor(SpeciesTable.of(groupNames), implicitGroupNames, getTestFactory());
 
         assertThat(getTestFactory().stringOutputFor("osm_all-parameters.csv"), is(
                 "\nsimulation.time.ndtPerYear;12\n" +
@@ -322,6 +386,16 @@ public class ConfigUtilTest {
     }
 
 
+    private static class OrderedStreamFactory implements StreamFactory {
+        private final Map<String, ByteArrayOutputStream> streamMap = new LinkedHashMap<String, ByteArrayOutputStream>();
+
+        @Override
+        public OutputStream outputStreamFor(String name) throws IOException {
+            streamMap.put(name, new ByteArrayOutputStream());
+            return streamMap.get(name);
+        }
+    }
+
     private class StreamFactoryMemory implements StreamFactory {
         private final Map<String, ByteArrayOutputStream> streamMap = new TreeMap<String, ByteArrayOutputStream>();
 
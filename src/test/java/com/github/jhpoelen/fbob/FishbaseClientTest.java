@@ -0,0 +1,66 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.internal.matchers.StringContains.containsString;
+
+public class FishbaseClientTest {
+
+    private FishbaseStub stub;
+    private FishbaseClient client;
+
+    @Before
+    public void start() throws IOException {
+        stub = new FishbaseStub();
+        client = new FishbaseClient(4, 2, 1000, 1000, 30000, 2, 10);
+    }
+
+    @After
+    public void stop() throws IOException {
+        client.close();
+        stub.stop();
+    }
+
+    @Test
+    public void connectionReused() throws IOException, URISyntaxException {
+        URI uri = new URI(stub.getBaseURI() + "/species?Genus=Scomberomorus&Species=cavalla");
+        assertThat(client.getString(uri), containsString("\"LongevityWild\""));
+        assertThat(client.getString(uri), containsString("\"LongevityWild\""));
+
+        assertThat(client.getRequests(), is(2L));
+        assertThat(client.getPoolStats().getAvailable(), is(1));
+        assertThat(client.getPoolStats().getLeased(), is(0));
+    }
+
+    @Test
+    public void retryWithBackoff() throws IOException, URISyntaxException {
+        stub.setFailures(2);
+        URI uri = new URI(stub.getBaseURI() + "/species?Genus=Scomberomorus&Species=cavalla");
+        assertThat(client.getString(uri), containsString("\"LongevityWild\""));
+
+        assertThat(client.getRetries(), is(2L));
+        assertThat(client.getFailures(), is(2L));
+        assertThat(stub.getRequestCount(), is(3));
+    }
+
+    @Test(expected = IOException.class)
+    public void retriesExhausted() throws IOException, URISyntaxException {
+        stub.setFailures(3);
+        client.getString(new URI(stub.getBaseURI() + "/species?Genus=Scomberomorus&Species=cavalla"));
+    }
+
+    @Test(expected = IOException.class)
+    public void readTimeout() throws IOException, URISyntaxException {
+        stub.setDelayMillis(2000);
+        new FishbaseClient(4, 2, 1000, 100, 30000, 0, 10)
+                .getString(new URI(stub.getBaseURI() + "/species?Genus=Scomberomorus&Species=cavalla"));
+    }
+}
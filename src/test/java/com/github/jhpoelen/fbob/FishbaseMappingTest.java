@@ -0,0 +1,103 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.hasItems;
+
+public class FishbaseMappingTest {
+
+    private final FishbaseMapping mapping = FishbaseMapping.getInstance();
+
+    @Test
+    public void loadedOnce() {
+        assertThat(FishbaseMapping.getInstance() == mapping, is(true));
+    }
+
+    @Test
+    public void groupedByTable() {
+        assertThat(mapping.getTables(), hasItems("species", "popgrowth", "poplw", "maturity", "fecundity", "spawning", "popqb"));
+        assertThat(mapping.getColumns("popgrowth"), hasItems("K", "Loo", "to"));
+        assertThat(mapping.getColumns("fecundity"), hasItems("RelFecundityMean", "SpawningCycles"));
+        assertThat(mapping.getEntries("species").size(), is(1));
+    }
+
+    @Test
+    public void propertyIndex() {
+        FishbaseMapping.Entry entry = mapping.forProperty("species.lifespan.sp");
+        assertThat(entry.getTable(), is("species"));
+        assertThat(entry.getColumns().get(0), is("LongevityWild"));
+        assertThat(entry.getDefaultValue(), is("0"));
+        assertThat(entry.getType(), is(FishbaseMapping.Type.NUMBER));
+        assertThat(mapping.forProperty("species.length2weight.fl.sp").getType(), is(FishbaseMapping.Type.BOOLEAN));
+    }
+
+    @Test
+    public void derivedProduct() {
+        FishbaseMapping.Entry entry = mapping.forProperty("species.relativefecundity.sp");
+        assertThat(entry.getDerivation(), is(FishbaseMapping.Derivation.PRODUCT));
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("RelFecundityMean", "250.0");
+        values.put("SpawningCycles", "2");
+        assertThat(entry.valueFrom(values), is("500.0"));
+
+        values.remove("SpawningCycles");
+        assertThat(entry.valueFrom(values), is("0.0"));
+    }
+
+    @Test
+    public void derivedRatio() {
+        FishbaseMapping.Entry entry = mapping.forProperty("predation.efficiency.critical.sp");
+        assertThat(entry.getDerivation(), is(FishbaseMapping.Derivation.RATIO));
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("MaintQB", "2.0");
+        values.put("PopQB", "4.0");
+        assertThat(entry.valueFrom(values), is("0.5"));
+
+        values.put("PopQB", "0");
+        assertThat(entry.valueFrom(values), is("0.0"));
+    }
+
+    @Test
+    public void derivedForkLength() {
+        FishbaseMapping.Entry entry = mapping.forProperty("species.length2weight.fl.sp");
+        assertThat(entry.getDerivation(), is(FishbaseMapping.Derivation.FORK_LENGTH));
+
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("Type", "FL");
+        assertThat(entry.valueFrom(values), is("true"));
+        values.put("Type", "TL");
+        assertThat(entry.valueFrom(values), is("false"));
+        values.put("Type", "SL");
+        assertThat(entry.valueFrom(values), is("false"));
+
+        values.remove("Type");
+        assertThat(entry.valueFrom(values), is("true"));
+    }
+
+    @Test
+    public void defaultsForNonBoolean() {
+        FishbaseMapping.Entry entry = new FishbaseMapping.Entry("species", "Flag", "species.flag.sp", "false");
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("Flag", "TRUE");
+        assertThat(entry.valueFrom(values), is("true"));
+        values.put("Flag", "maybe");
+        assertThat(entry.valueFrom(values), is("false"));
+    }
+
+    @Test
+    public void defaultsForMissingOrNonNumeric() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("LongevityWild", "unknown");
+        Map<String, String> properties = mapping.apply(values);
+        assertThat(properties.get("species.lifespan.sp"), is("0"));
+        assertThat(properties.get("species.K.sp"), is("0.0"));
+        assertThat(properties.get("species.vonbertalanffy.threshold.age.sp"), is("1.0"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FishbaseStub {
+
+    private static final String NO_DATA = "{\"count\":0,\"returned\":0,\"data\":[],\"error\":null}";
+    // growth estimates of three king mackerel populations
+    private static final String POPGROWTH = "{\"count\":3,\"returned\":3,\"data\":["
+            + "{\"SpecCode\":120,\"K\":0.3,\"Loo\":120.5,\"to\":-1.2,\"DateEntered\":\"1995-03-01 00:00:00\"},"
+            + "{\"SpecCode\":120,\"K\":0.2,\"Loo\":150.0,\"to\":null,\"DateEntered\":\"2011-06-20 00:00:00\"},"
+            + "{\"SpecCode\":120,\"K\":0.25,\"Loo\":131.0,\"to\":-2.0,\"DateEntered\":\"2002-11-05 00:00:00\"}],\"error\":null}";
+
+    private final HttpServer server;
+    private final int port;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger tableRequestCount = new AtomicInteger();
+    private volatile long delayMillis = 0;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    public FishbaseStub() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = HttpServer.createSimpleServer(null, "localhost", port);
+        // enough workers to answer all tables of a species at once, whatever the number of cores
+        server.getListener("grizzly").getTransport().setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig()
+                .setCorePoolSize(16)
+                .setMaxPoolSize(16));
+        server.getServerConfiguration().addHttpHandler(new StubHandler(requestCount) {
+            @Override
+            String respond(Request request) throws IOException {
+                return "Scomberomorus".equals(request.getParameter("Genus"))
+                        ? IOUtils.toString(getClass().getResourceAsStream("ScomberomorusCavalla.json"), "UTF-8")
+                        : NO_DATA;
+            }
+        }, "/species");
+        for (final String table : FishbaseTables.tablesOf(FishbaseMapping.getInstance())) {
+            server.getServerConfiguration().addHttpHandler(new StubHandler(tableRequestCount) {
+                @Override
+                String respond(Request request) {
+                    return "popgrowth".equals(table) && "120".equals(request.getParameter("SpecCode"))
+                            ? POPGROWTH
+                            : NO_DATA;
+                }
+            }, "/" + table);
+        }
+        server.start();
+    }
+
+    private abstract class StubHandler extends HttpHandler {
+        private final AtomicInteger count;
+
+        StubHandler(AtomicInteger count) {
+            this.count = count;
+        }
+
+        abstract String respond(Request request) throws IOException;
+
+        @Override
+        public void service(Request request, Response response) throws Exception {
+            count.incrementAndGet();
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                response.sendError(503);
+                return;
+            }
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write(respond(request));
+        }
+    }
+
+    public String getBaseURI() {
+        return "http://localhost:" + port;
+    }
+
+    // species lookups, the requests for other tables by SpecCode are counted apart
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getTableRequestCount() {
+        return tableRequestCount.get();
+    }
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public void setFailures(int failures) {
+        failuresLeft.set(failures);
+    }
+
+    public void stop() {
+        server.shutdownNow();
+    }
+}
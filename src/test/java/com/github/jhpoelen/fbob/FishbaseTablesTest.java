@@ -0,0 +1,136 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.hasItems;
+
+public class FishbaseTablesTest {
+
+    private FishbaseStub stub;
+
+    @Before
+    public void start() throws IOException {
+        stub = new FishbaseStub();
+        System.setProperty("fbob.fishbase.url", stub.getBaseURI());
+    }
+
+    @After
+    public void stop() {
+        System.clearProperty("fbob.fishbase.url");
+        System.clearProperty("fbob.fishbase.aggregate.popgrowth");
+        stub.stop();
+    }
+
+    @Test
+    public void tablesOfFocalSpecies() {
+        Set<String> tables = FishbaseTables.tablesOf(FishbaseMapping.getInstance());
+        assertThat(tables, hasItems("popgrowth", "poplw", "maturity", "fecundity", "spawning", "popqb"));
+        assertThat(tables.size(), is(6));
+    }
+
+    @Test
+    public void tablesConcurrently() throws IOException, URISyntaxException {
+        FishbaseTables tables = new FishbaseTables(FishbaseMapping.getInstance(), Executors.newFixedThreadPool(8), 60000, 60000, 10);
+        stub.setDelayMillis(300);
+
+        long start = System.currentTimeMillis();
+        Map<String, String> traits = TraitFinder.findTraitsForGroup("ScomberomorusCavalla", FishbaseMapping.getInstance(), tables);
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(traits.get("species.lifespan.sp"), is("14.0"));
+        assertThat(traits.get("species.K.sp"), is("0.25"));
+        assertThat(traits.get("species.lInf.sp"), is("131.0"));
+        assertThat(traits.get("species.t0.sp"), is("-1.6"));
+        assertThat(traits.get("species.maturity.size.sp"), is("0.0"));
+        assertThat(stub.getRequestCount(), is(1));
+        assertThat(stub.getTableRequestCount(), is(6));
+        // a species lookup, then all tables at once
+        assertThat(duration < 1200, is(true));
+
+        TraitFinder.findTraitsForGroup("ScomberomorusCavalla", FishbaseMapping.getInstance(), tables);
+        assertThat(stub.getRequestCount(), is(2));
+        assertThat(stub.getTableRequestCount(), is(6));
+    }
+
+    @Test
+    public void aggregatePerTable() throws IOException, URISyntaxException {
+        System.setProperty("fbob.fishbase.aggregate.popgrowth", "latest");
+        FishbaseTables tables = new FishbaseTables(FishbaseMapping.getInstance(), Executors.newFixedThreadPool(8), 60000, 60000, 10);
+
+        Map<String, String> traits = TraitFinder.findTraitsForGroup("ScomberomorusCavalla", FishbaseMapping.getInstance(), tables);
+        assertThat(traits.get("species.K.sp"), is("0.2"));
+        assertThat(traits.get("species.t0.sp"), is("0.0"));
+    }
+
+    @Test
+    public void noTablesWithoutSpecies() throws IOException, URISyntaxException {
+        FishbaseTables tables = new FishbaseTables(FishbaseMapping.getInstance(), Executors.newFixedThreadPool(8), 60000, 60000, 10);
+        assertThat(TraitFinder.findTraitsForGroup("DonaldDuck", FishbaseMapping.getInstance(), tables).isEmpty(), is(true));
+        assertThat(stub.getTableRequestCount(), is(0));
+    }
+
+    @Test
+    public void aggregate() {
+        List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+        records.add(record("4", "0.5", "TL", "2001-01-01"));
+        records.add(record("1", "0.1", null, "2010-01-01"));
+        records.add(record("2", null, "FL", null));
+        records.add(record("3", "0.3", "FL", "2005-01-01"));
+        Set<String> columns = new HashSet<String>(Arrays.asList("count", "rate", "Type"));
+        FishbaseMapping.Entry forkLength = FishbaseMapping.getInstance().forProperty("species.length2weight.fl.sp");
+
+        Map<String, String> median = FishbaseTables.aggregate(records, columns, FishbaseTables.Aggregate.MEDIAN);
+        assertThat(median.get("count"), is("2.5"));
+        assertThat(median.get("rate"), is("0.3"));
+        // the latest record has no length type, the one before it does
+        assertThat(median.get("Type"), is("FL"));
+        assertThat(forkLength.valueFrom(median), is("true"));
+
+        Map<String, String> mean = FishbaseTables.aggregate(records, columns, FishbaseTables.Aggregate.MEAN);
+        assertThat(mean.get("count"), is("2.5"));
+        assertThat(mean.get("rate"), is("0.3"));
+
+        Map<String, String> first = FishbaseTables.aggregate(records, columns, FishbaseTables.Aggregate.FIRST);
+        assertThat(first.get("count"), is("4"));
+        assertThat(first.get("rate"), is("0.5"));
+        assertThat(forkLength.valueFrom(first), is("false"));
+
+        Map<String, String> latest = FishbaseTables.aggregate(records, columns, FishbaseTables.Aggregate.LATEST);
+        assertThat(latest.get("count"), is("1"));
+        assertThat(latest.containsKey("Type"), is(false));
+        assertThat(forkLength.valueFrom(latest), is("true"));
+
+        records.remove(0);
+        assertThat(FishbaseTables.aggregate(records, columns, FishbaseTables.Aggregate.MEDIAN).get("count"), is("2"));
+        assertThat(FishbaseTables.aggregate(new ArrayList<Map<String, String>>(), columns, FishbaseTables.Aggregate.MEDIAN).isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownAggregate() {
+        FishbaseTables.Aggregate.parse("mode");
+    }
+
+    private static Map<String, String> record(String count, String rate, String type, String dateEntered) {
+        Map<String, String> record = new HashMap<String, String>();
+        record.put("count", count);
+        record.put("rate", rate);
+        record.put("Type", type);
+        record.put("DateEntered", dateEntered);
+        return record;
+    }
+}
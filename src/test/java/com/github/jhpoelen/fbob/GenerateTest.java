@@ -0,0 +1,146 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+public class GenerateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void configDirectoryWithOfflineTraits() throws IOException {
+        File traits = folder.newFile("traits.json");
+        FileUtils.writeStringToFile(traits, "{\"groupA\": {\"species.lifespan.sp\": \"14\"}}", StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "config");
+
+        assertThat(run("--offline", "--traits", traits.getPath(), "-o", output.getPath(), "groupA", "groupB"), is(0));
+        assertThat(new File(output, "maps").isDirectory(), is(true));
+        String species = FileUtils.readFileToString(new File(output, "osm_param-species.csv"), StandardCharsets.UTF_8);
+        assertThat(species, containsString("species.lifespan.sp0;14"));
+        assertThat(species, containsString("species.name.sp1;groupB"));
+    }
+
+    @Test
+    public void failedRunLeavesNoOutput() throws IOException {
+        File output = new File(folder.getRoot(), "config");
+        try {
+            Generate.writeAtomically(output, new Generate.OutputWriter() {
+                @Override
+                public void write(File staged) throws IOException {
+                    try (StreamFactoryImpl dir = new StreamFactoryImpl(staged)) {
+                        ConfigUtil.generateFromTemplate(dir, "osm_param-grid.csv");
+                        throw new IOException("kaboom");
+                    }
+                }
+            });
+            fail("expected failure");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("kaboom"));
+        }
+        assertThat(folder.getRoot().list().length, is(0));
+    }
+
+    @Test
+    public void configIntoExistingDirectory() throws IOException {
+        File output = folder.newFolder("config");
+        FileUtils.writeStringToFile(new File(output, "maps/keep.csv"), "kept", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(output, "osm_param-species.csv"), "stale", StandardCharsets.UTF_8);
+
+        assertThat(run("--offline", "-o", output.getPath(), "groupA"), is(0));
+        assertThat(FileUtils.readFileToString(new File(output, "osm_param-species.csv"), StandardCharsets.UTF_8), containsString("species.name.sp0;groupA"));
+        assertThat(FileUtils.readFileToString(new File(output, "maps/keep.csv"), StandardCharsets.UTF_8), is("kept"));
+        assertThat(new File(output, "maps").list().length > 1, is(true));
+        // nothing left of the staging directory
+        assertThat(folder.getRoot().list().length, is(1));
+    }
+
+    @Test
+    public void configZipWithSavedTraits() throws IOException {
+        File output = new File(folder.getRoot(), "archives/osmose_config.zip");
+        File saved = new File(folder.getRoot(), "saved.json");
+
+        assertThat(run("--offline", "--save-traits", saved.getPath(), "-o", output.getPath(), "groupA"), is(0));
+        assertThat(entriesOf(output), hasItem("osm_all-parameters.csv"));
+        assertThat(Generate.readTraits(saved).containsKey("groupA"), is(false));
+    }
+
+    @Test
+    public void scenariosInOneRun() throws IOException {
+        File scenarios = folder.newFile("scenarios.csv");
+        FileUtils.writeStringToFile(scenarios, "scenario,htlGroupName,species.lifespan.sp\nwarm,groupA,12\ncold,groupA,8\n", StandardCharsets.UTF_8);
+        File output = new File(folder.getRoot(), "jobs");
+
+        assertThat(run("--offline", "--scenarios", scenarios.getPath(), "-o", output.getPath()), is(0));
+        assertThat(FileUtils.readFileToString(new File(output, "warm/osm_param-species.csv"), StandardCharsets.UTF_8), containsString("species.lifespan.sp0;12"));
+        assertThat(FileUtils.readFileToString(new File(output, "cold/osm_param-species.csv"), StandardCharsets.UTF_8), containsString("species.lifespan.sp0;8"));
+        assertThat(new File(output, "osm_param-grid.csv").isFile(), is(true));
+    }
+
+    @Test
+    public void configFromSnapshot() throws IOException {
+        File dumps = folder.newFolder("dumps");
+        FileUtils.writeStringToFile(new File(dumps, "species.csv"), "SpecCode,Genus,Species,LongevityWild\n120,Scomberomorus,cavalla,14\n", StandardCharsets.UTF_8);
+        File snapshot = new File(folder.getRoot(), "traits.bin");
+        TraitSnapshot.importFrom(dumps, FishbaseMapping.getInstance(), snapshot);
+        File output = new File(folder.getRoot(), "config");
+
+        assertThat(run("--offline", "--snapshot", snapshot.getPath(), "-o", output.getPath(), "ScomberomorusCavalla"), is(0));
+        assertThat(FileUtils.readFileToString(new File(output, "osm_param-species.csv"), StandardCharsets.UTF_8), containsString("species.lifespan.sp0;14"));
+    }
+
+    @Test
+    public void invalidArguments() {
+        assertThat(run("--offline"), is(2));
+        assertThat(run("--unknown", "groupA"), is(2));
+        assertThat(run("-o"), is(2));
+        assertThat(run("--compression", "rar", "groupA"), is(2));
+        assertThat(new String(err.toByteArray(), StandardCharsets.UTF_8), containsString(Generate.USAGE));
+    }
+
+    @Test
+    public void formatOf() {
+        assertThat(Generate.formatOf(new File("config.zip")), is(ArchiveFormat.ZIP));
+        assertThat(Generate.formatOf(new File("config.tar")), is(ArchiveFormat.TAR));
+        assertThat(Generate.formatOf(new File("config.TGZ")), is(ArchiveFormat.TAR_GZ));
+        assertThat(Generate.formatOf(new File("config.tar.gz")), is(ArchiveFormat.TAR_GZ));
+        assertThat(Generate.formatOf(new File("config")) == null, is(true));
+    }
+
+    private int run(String... args) {
+        return Generate.run(args, new PrintStream(out), new PrintStream(err));
+    }
+
+    private static List<String> entriesOf(File zip) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+public class MetricRegistryTest {
+
+    @Test
+    public void counter() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests_total", "Requests.", "endpoint", "/ping").inc();
+        registry.counter("requests_total", "Requests.", "endpoint", "/ping").inc(2);
+        registry.counter("requests_total", "Requests.", "endpoint", "/metrics").inc();
+
+        assertThat(registry.toText(), is("# HELP requests_total Requests.\n" +
+                "# TYPE requests_total counter\n" +
+                "requests_total{endpoint=\"/metrics\"} 1\n" +
+                "requests_total{endpoint=\"/ping\"} 3\n"));
+    }
+
+    @Test
+    public void timer() {
+        MetricRegistry registry = new MetricRegistry();
+        MetricRegistry.Histogram timer = registry.timer("duration_seconds", "Duration.");
+        timer.observe(500000L);
+        timer.observe(2000000000L);
+        timer.observe(60000000000L);
+
+        String text = registry.toText();
+        assertThat(text, containsString("# TYPE duration_seconds histogram\n"));
+        assertThat(text, containsString("duration_seconds_bucket{le=\"0.001\"} 1\n"));
+        assertThat(text, containsString("duration_seconds_bucket{le=\"1\"} 1\n"));
+        assertThat(text, containsString("duration_seconds_bucket{le=\"2.5\"} 2\n"));
+        assertThat(text, containsString("duration_seconds_bucket{le=\"30\"} 2\n"));
+        assertThat(text, containsString("duration_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertThat(text, containsString("duration_seconds_sum 62.0005\n"));
+        assertThat(text, containsString("duration_seconds_count 3\n"));
+    }
+
+    @Test
+    public void sample() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.register("entries", "Entries.", "gauge", new MetricRegistry.Sample() {
+            @Override
+            public double value() {
+                return 42;
+            }
+        }, "cache", "quoted \"name\"");
+        assertThat(registry.toText(), containsString("entries{cache=\"quoted \\\"name\\\"\"} 42\n"));
+    }
+
+    @Test
+    public void typeMismatch() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests_total", "Requests.");
+        try {
+            registry.timer("requests_total", "Requests.");
+            fail("expected a counter not to be reused as a histogram");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+}
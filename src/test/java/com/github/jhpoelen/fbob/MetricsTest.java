@@ -0,0 +1,57 @@
+package com.github.jhpoelen.fbob;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.containsString;
+
+public class MetricsTest {
+
+    private HttpServer server;
+    private WebTarget target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = Main.startServer();
+        Client c = ClientBuilder.newClient();
+        target = c.target(Main.getBaseURI());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdownNow();
+    }
+
+    @Test
+    public void metrics() {
+        target.path("ping").request().get(String.class);
+        Response badRequest = target.path("osmose_config.zip").queryParam("format", "rar").request().get();
+        assertThat(badRequest.getStatus(), is(400));
+        target.path("osmose_config.zip").request().get(byte[].class);
+
+        Response response = target.path("metrics").request().get();
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getMediaType().toString(), containsString("text/plain"));
+        String metrics = response.readEntity(String.class);
+        assertThat(metrics, containsString("fbob_http_request_duration_seconds_count{endpoint=\"/ping\"} "));
+        assertThat(metrics, containsString("fbob_http_response_bytes_total{endpoint=\"/osmose_config.zip\"} "));
+        assertThat(metrics, containsString("fbob_http_errors_total{endpoint=\"/osmose_config.zip\",status=\"400\"} "));
+        assertThat(metrics, containsString("fbob_cache_hits_total{cache=\"static_archive\"} "));
+    }
+
+    @Test
+    public void compressedMetrics() {
+        Response response = target.path("metrics").request().header("Accept-Encoding", "gzip").get();
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaderString("Content-Encoding"), is("gzip"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ParamWriterTest {
+
+    @Test
+    public void escapeLikeCommonsLang() throws IOException {
+        List<String> values = Arrays.asList("plain", "with,comma", "with \"quote\"", "line\nbreak", "carriage\rreturn", "semi;colon", "", "Ωmega", "🐟 fish");
+        List<String> escaped = new ArrayList<String>();
+        for (String value : values) {
+            escaped.add(StringEscapeUtils.escapeCsv(value));
+        }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(false).values(values);
+        }
+        assertThat(os.toString("UTF-8"), is(StringUtils.join(escaped, ";")));
+    }
+
+    @Test
+    public void loneSurrogatesLikeGetBytes() throws IOException {
+        for (String value : Arrays.asList("\uD800a", "a\uDC00b", "\uD800\uD800x", "quoted,\uD800a", "end\uD800", "\uD83D\uDC1F\uD800")) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try (ParamWriter writer = new ParamWriter(os)) {
+                writer.raw(value);
+            }
+            assertThat(value, os.toByteArray(), is(value.getBytes(StandardCharsets.UTF_8)));
+
+            ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+            try (ParamWriter writer = new ParamWriter(escaped)) {
+                writer.row(false).value(value);
+            }
+            assertThat(value, escaped.toByteArray(), is(StringEscapeUtils.escapeCsv(value).getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void rows() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(false).value("species.name.sp", 0).value("one");
+            writer.row().value("species.name.sp", 12).value(null);
+            writer.row().value("simulation.nspecies").value(305);
+            writer.row().raw("raw;text");
+        }
+        assertThat(os.toString("UTF-8"), is("species.name.sp0;one\nspecies.name.sp12;\nsimulation.nspecies;305\nraw;text"));
+    }
+
+    @Test
+    public void largerThanBuffer() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        String value = StringUtils.repeat("Ω", 10000);
+        try (ParamWriter writer = new ParamWriter(os)) {
+            writer.row(false).value(value).value(value);
+        }
+        assertThat(os.toString("UTF-8"), is(value + ";" + value));
+    }
+
+    @Test
+    public void writeLine() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ConfigUtil.writeLine(os, Arrays.asList("one", "two"), false);
+        ConfigUtil.writeLine(os, Arrays.asList("three", "fo\"ur"));
+        assertThat(os.toString("UTF-8"), is("one;two\nthree;\"fo\"\"ur\""));
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ResourceCatalogTest {
+
+    @Test
+    public void indexedOnce() {
+        assertThat(ResourceCatalog.getInstance() == ResourceCatalog.getInstance(), is(true));
+    }
+
+    @Test
+    public void entry() throws IOException {
+        ResourceCatalog.Entry entry = ResourceCatalog.getInstance().get("maps/Amberjacks_1.csv");
+        byte[] expected = IOUtils.toByteArray(getClass().getResourceAsStream("osmose_config/maps/Amberjacks_1.csv"));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        entry.writeTo(actual);
+        assertThat(actual.toByteArray(), is(expected));
+        assertThat(entry.getSize(), is(expected.length));
+        assertThat(entry.getResource(), is("com/github/jhpoelen/fbob/osmose_config/maps/Amberjacks_1.csv"));
+
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        assertThat(entry.getCrc(), is(crc.getValue()));
+    }
+
+    @Test
+    public void deflated() throws IOException {
+        ResourceCatalog.Entry entry = ResourceCatalog.getInstance().get("maps/Amberjacks_1.csv");
+        byte[] inflated = IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(entry.getDeflated()), new Inflater(true)));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        entry.writeTo(expected);
+        assertThat(inflated, is(expected.toByteArray()));
+        assertThat(entry.getDeflated() == entry.getDeflated(), is(true));
+    }
+
+    @Test
+    public void binaryEntry() {
+        assertThat(ResourceCatalog.getInstance().contains("osm_ltlbiomass.nc"), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingEntry() {
+        ResourceCatalog.getInstance().get("no/such/file.csv");
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class SpeciesTableTest {
+
+    @Test
+    public void ids() {
+        SpeciesTable species = SpeciesTable.of(Arrays.asList("one", "two", "three"));
+        assertThat(species.size(), is(3));
+        assertThat(species.idOf("one"), is(0));
+        assertThat(species.idOf("three"), is(2));
+        assertThat(species.nameOf(1), is("two"));
+        assertThat(species.idOf("four"), is(-1));
+    }
+
+    @Test
+    public void duplicatesReferToFirstAppearance() {
+        SpeciesTable species = SpeciesTable.of(Arrays.asList("one", "two", "one", "three", "two"));
+        assertThat(species.getNames(), is(Arrays.asList("one", "two", "three")));
+        assertThat(species.idOf("one"), is(0));
+        assertThat(species.idOf("three"), is(2));
+    }
+}
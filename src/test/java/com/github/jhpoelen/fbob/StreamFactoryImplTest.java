@@ -0,0 +1,140 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StreamFactoryImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeIntoSubdirectories() throws IOException {
+        File root = new File(folder.getRoot(), "job");
+        byte[] large = new byte[200 * 1024];
+        Arrays.fill(large, (byte) 'a');
+        try (StreamFactoryImpl factory = new StreamFactoryImpl(root)) {
+            try (OutputStream os = factory.outputStreamFor("maps/one.csv")) {
+                os.write("one".getBytes(StandardCharsets.UTF_8));
+                // nothing is visible under the final name until the file is complete
+                assertThat(new File(root, "maps/one.csv").exists(), is(false));
+            }
+            assertThat(FileUtils.readFileToString(new File(root, "maps/one.csv"), StandardCharsets.UTF_8), is("one"));
+
+            try (OutputStream os = factory.outputStreamFor("fishing/large.csv")) {
+                os.write('b');
+                os.write(large);
+                os.write('c');
+            }
+        }
+        byte[] written = FileUtils.readFileToByteArray(new File(root, "fishing/large.csv"));
+        assertThat(written.length, is(large.length + 2));
+        assertThat(written[0], is((byte) 'b'));
+        assertThat(written[written.length - 1], is((byte) 'c'));
+        assertThat(new File(root, "maps").list().length, is(1));
+        assertThat(new File(root, "fishing").list().length, is(1));
+    }
+
+    @Test
+    public void publishWithDefaultPermissions() throws IOException {
+        File root = folder.newFolder("job");
+        File plain = new File(root, "plain.csv");
+        FileUtils.writeStringToFile(plain, "plain", StandardCharsets.UTF_8);
+        try (StreamFactoryImpl factory = new StreamFactoryImpl(root)) {
+            try (OutputStream os = factory.outputStreamFor("published.csv")) {
+                os.write("published".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (Files.getFileStore(root.toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            assertThat(Files.getPosixFilePermissions(new File(root, "published.csv").toPath()), is(Files.getPosixFilePermissions(plain.toPath())));
+        }
+    }
+
+    @Test
+    public void closePublishesOpenStreams() throws IOException {
+        File root = folder.newFolder("job");
+        StreamFactoryImpl factory = new StreamFactoryImpl(root);
+        factory.outputStreamFor("left-open.csv").write("open".getBytes(StandardCharsets.UTF_8));
+        factory.fromTemplate("osm_param-grid.csv", ResourceCatalog.getInstance().get("osm_param-grid.csv"));
+        factory.close();
+        assertThat(FileUtils.readFileToString(new File(root, "left-open.csv"), StandardCharsets.UTF_8), is("open"));
+        assertThat(new File(root, "osm_param-grid.csv").length(), is((long) ResourceCatalog.getInstance().get("osm_param-grid.csv").getSize()));
+        assertThat(root.list().length, is(2));
+    }
+
+    @Test
+    public void abortDiscardsOpenStreams() throws IOException {
+        File root = folder.newFolder("job");
+        StreamFactoryImpl factory = new StreamFactoryImpl(root);
+        try (OutputStream os = factory.outputStreamFor("complete.csv")) {
+            os.write("complete".getBytes(StandardCharsets.UTF_8));
+        }
+        OutputStream partial = factory.outputStreamFor("partial.csv");
+        partial.write("part".getBytes(StandardCharsets.UTF_8));
+        factory.outputStreamFor("left-open.csv").write("open".getBytes(StandardCharsets.UTF_8));
+        factory.abort();
+        partial.close();
+        factory.close();
+        assertThat(Arrays.asList(root.list()), is(Arrays.asList("complete.csv")));
+    }
+
+    @Test
+    public void publishEachFileWhileGenerating() throws IOException {
+        List<String> groupNames = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            groupNames.add("group" + i);
+        }
+        final File root = folder.newFolder("job");
+        final List<String> names = new ArrayList<String>();
+        final int[] mostOpen = new int[1];
+        StreamFactoryImpl factory = new StreamFactoryImpl(root) {
+            @Override
+            public OutputStream outputStreamFor(String name) throws IOException {
+                mostOpen[0] = Math.max(mostOpen[0], openFiles());
+                // the file generated before is already in place
+                if (!names.isEmpty()) {
+                    assertThat(new File(root, names.get(names.size() - 1)).isFile(), is(true));
+                }
+                names.add(name);
+                return super.outputStreamFor(name);
+            }
+        };
+        try {
+            ConfigUtil.generateConfigFor(SpeciesTable.of(groupNames), Config.LTL_GROUP_NAMES, factory, ConfigUtil.getDefaultValueFactory());
+            assertThat(factory.openFiles(), is(0));
+        } finally {
+            factory.close();
+        }
+        // a file per group for reproduction and fishing seasonality, but only one open at a time
+        assertThat(names.size() > 400, is(true));
+        assertThat(mostOpen[0], is(0));
+    }
+
+    @Test
+    public void rejectNamesOutsideRoot() throws IOException {
+        StreamFactoryImpl factory = new StreamFactoryImpl(folder.newFolder("job"));
+        try {
+            factory.outputStreamFor("../escape.csv");
+            fail("expected name outside of root to be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+        assertThat(new File(folder.getRoot(), "escape.csv").exists(), is(false));
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StreamPermitsTest {
+
+    @Test
+    public void rejectWhenExhausted() throws IOException {
+        StreamPermits permits = new StreamPermits(1);
+        StreamPermits.Permit permit = permits.acquire();
+        assertThat(permits.getActive(), is(1));
+        try {
+            permits.acquire();
+            fail("expected second stream to be rejected");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus(), is(503));
+            assertThat(ex.getResponse().getHeaderString("Retry-After"), is("5"));
+        }
+
+        StreamingOutput stream = permit.releasing(new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                output.write(1);
+            }
+        });
+        stream.write(NullOutputStream.NULL_OUTPUT_STREAM);
+        assertThat(permits.getActive(), is(0));
+
+        // a second write or release must not hand out an extra permit
+        stream.write(NullOutputStream.NULL_OUTPUT_STREAM);
+        permit.release();
+        assertThat(permits.getActive(), is(0));
+        permits.acquire();
+        assertThat(permits.getActive(), is(1));
+    }
+
+    @Test
+    public void releaseOnFailedWrite() {
+        StreamPermits permits = new StreamPermits(1);
+        try {
+            permits.acquire().releasing(new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    throw new IOException("client went away");
+                }
+            }).write(NullOutputStream.NULL_OUTPUT_STREAM);
+            fail("expected write to fail");
+        } catch (IOException ex) {
+            assertThat(permits.getActive(), is(0));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.jhpoelen.fbob;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TraitCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FishbaseStub stub;
+
+    @Before
+    public void start() throws IOException {
+        stub = new FishbaseStub();
+        System.setProperty("fbob.fishbase.url", stub.getBaseURI());
+    }
+
+    @After
+    public void stop() {
+        System.clearProperty("fbob.fishbase.url");
+        stub.stop();
+    }
+
+    @Test
+    public void hitAfterMiss() throws IOException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+
+        Map<String, String> traits = cache.get("ScomberomorusCavalla");
+        assertThat(traits.get("species.lifespan.sp"), is("14.0"));
+        assertThat(cache.get("ScomberomorusCavalla").get("species.lifespan.sp"), is("14.0"));
+
+        assertThat(stub.getRequestCount(), is(1));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test
+    public void negativeHit() throws IOException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+
+        assertThat(cache.get("DonaldDuck").isEmpty(), is(true));
+        assertThat(cache.get("DonaldDuck").isEmpty(), is(true));
+
+        assertThat(stub.getRequestCount(), is(1));
+        assertThat(cache.getNegativeHits(), is(1L));
+    }
+
+    @Test
+    public void expired() throws IOException, InterruptedException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 1, 1, 10, null);
+
+        cache.get("ScomberomorusCavalla");
+        Thread.sleep(5);
+        cache.get("ScomberomorusCavalla");
+
+        assertThat(stub.getRequestCount(), is(2));
+        assertThat(cache.getMisses(), is(2L));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws IOException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 2, null);
+
+        cache.get("ScomberomorusCavalla");
+        cache.get("DonaldDuck");
+        cache.get("ScomberomorusCavalla");
+        cache.get("MickeyMouse");
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictions(), is(1L));
+
+        cache.get("ScomberomorusCavalla");
+        assertThat(stub.getRequestCount(), is(3));
+    }
+
+    @Test
+    public void warmFromStore() throws IOException {
+        File store = new File(folder.getRoot(), "traits.json");
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, store);
+        cache.get("ScomberomorusCavalla");
+        cache.flush();
+        assertThat(store.exists(), is(true));
+
+        TraitCache restarted = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, store);
+        assertThat(restarted.get("ScomberomorusCavalla").get("species.lifespan.sp"), is("14.0"));
+        assertThat(stub.getRequestCount(), is(1));
+        assertThat(restarted.getHits(), is(1L));
+    }
+
+    @Test
+    public void persistOnlyWhenChanged() throws IOException {
+        File store = new File(folder.getRoot(), "traits.json");
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, store);
+        cache.get("ScomberomorusCavalla");
+        cache.get("DonaldDuck");
+        assertThat(store.exists(), is(false));
+
+        cache.flush();
+        assertThat(store.delete(), is(true));
+        // hits change nothing, so there is nothing to write
+        cache.get("ScomberomorusCavalla");
+        cache.flush();
+        assertThat(store.exists(), is(false));
+    }
+
+    @Test
+    public void getAllConcurrently() throws IOException, TimeoutException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+        stub.setDelayMillis(300);
+
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, String>> traits = cache.getAll(Arrays.asList("ScomberomorusCavalla", "DonaldDuck", "MickeyMouse", "GoofyDog"),
+                Executors.newFixedThreadPool(4), 5000, 5000);
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(traits.get("ScomberomorusCavalla").get("species.lifespan.sp"), is("14.0"));
+        assertThat(traits.get("GoofyDog").isEmpty(), is(true));
+        assertThat(stub.getRequestCount(), is(4));
+        assertThat(duration < 1200, is(true));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getAllDeadline() throws IOException, TimeoutException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+        stub.setDelayMillis(1000);
+
+        cache.getAll(Arrays.asList("ScomberomorusCavalla", "DonaldDuck"), Executors.newFixedThreadPool(2), 5000, 100);
+    }
+
+    @Test
+    public void getAllAsyncLookupDeadline() throws InterruptedException, ExecutionException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+        stub.setDelayMillis(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        long start = System.currentTimeMillis();
+        try {
+            cache.getAllAsync(Arrays.asList("ScomberomorusCavalla"), executor, 100, 5000).get();
+            fail("expected lookup to time out");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof TimeoutException, is(true));
+        }
+        assertThat(System.currentTimeMillis() - start < 800, is(true));
+
+        // the load itself carries on for whoever asks next
+        assertThat(cache.getAsync("ScomberomorusCavalla", executor).get().get("species.lifespan.sp"), is("14.0"));
+        assertThat(stub.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void getAllAsyncOverallDeadline() throws InterruptedException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+        stub.setDelayMillis(1000);
+        try {
+            cache.getAllAsync(Arrays.asList("ScomberomorusCavalla", "DonaldDuck"), Executors.newFixedThreadPool(2), 5000, 100).get();
+            fail("expected lookups to time out");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof TimeoutException, is(true));
+        }
+    }
+
+    @Test
+    public void concurrentLookupsCoalesced() throws InterruptedException, ExecutionException {
+        TraitCache cache = new TraitCache(TraitCache.fishbaseLoader(), 60000, 60000, 10, null);
+        stub.setDelayMillis(300);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<Map<String, String>>> lookups = new ArrayList<CompletableFuture<Map<String, String>>>();
+        for (int i = 0; i < 8; i++) {
+            lookups.add(cache.getAsync("ScomberomorusCavalla", executor));
+        }
+        for (CompletableFuture<Map<String, String>> lookup : lookups) {
+            assertThat(lookup.get().get("species.lifespan.sp"), is("14.0"));
+        }
+
+        assertThat(stub.getRequestCount(), is(1));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getDeduplicated(), is(7L));
+    }
+
+    @Test
+    public void failureNotCached() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        TraitCache cache = new TraitCache(new TraitCache.Loader() {
+            @Override
+            public Map<String, String> load(String groupName) throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException("kaboom");
+                }
+                return Collections.singletonMap("species.lifespan.sp", "14.0");
+            }
+        }, 60000, 60000, 10, null);
+
+        try {
+            cache.get("ScomberomorusCavalla");
+            fail("expected first attempt to fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("kaboom"));
+        }
+        assertThat(cache.size(), is(0));
+        assertThat(cache.get("ScomberomorusCavalla").get("species.lifespan.sp"), is("14.0"));
+        assertThat(attempts.get(), is(2));
+    }
+}
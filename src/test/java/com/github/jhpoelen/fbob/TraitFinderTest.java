@@ -3,13 +3,18 @@ package com.github.jhpoelen.fbob;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class TraitFinderTest {
@@ -32,5 +37,26 @@ public class TraitFinderTest {
         assertThat(speciesProperties.get("species.lifespan.sp"), is("14.0"));
     }
 
+    @Test
+    public void firstHitOnly() throws IOException {
+        String json = "{\"count\":2,\"meta\":{\"data\":[{\"LongevityWild\":1}]},\"data\":[" +
+                "{\"Remark\":{\"nested\":[1,2]},\"LongevityWild\":14.0,\"SpecCode\":120,\"FBname\":\"King mackerel\",\"Fresh\":null}," +
+                "{\"LongevityWild\":99.0}]}";
+        Map<String, String> hit = TraitFinder.firstHit(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new HashSet<String>(Arrays.asList("LongevityWild", "SpecCode", "FBname", "Fresh")));
+        assertThat(hit.get("LongevityWild"), is("14.0"));
+        assertThat(hit.get("SpecCode"), is("120"));
+        assertThat(hit.get("FBname"), is("King mackerel"));
+        assertThat(hit.containsKey("Fresh"), is(true));
+        assertThat(hit.get("Fresh"), is(nullValue()));
+        assertThat(hit.containsKey("Remark"), is(false));
+    }
+
+    @Test
+    public void noHit() throws IOException {
+        String json = "{\"count\":0,\"returned\":0,\"data\":[],\"error\":null}";
+        assertThat(TraitFinder.firstHit(new ByteArrayInputStream(json.getBytes("UTF-8")), Collections.singleton("LongevityWild")), is(nullValue()));
+        assertThat(TraitFinder.mapProperties(json, getClass().getResourceAsStream("fishbase-mapping.csv")).isEmpty(), is(true));
+    }
 
 }
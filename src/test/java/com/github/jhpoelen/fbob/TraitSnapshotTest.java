@@ -0,0 +1,113 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.matchers.JUnitMatchers.hasItems;
+
+public class TraitSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dumps;
+    private File snapshotFile;
+
+    @Before
+    public void writeDumps() throws IOException {
+        dumps = folder.newFolder("dumps");
+        snapshotFile = new File(folder.getRoot(), "snapshot/traits.bin");
+        writeDump("species.csv", "SpecCode,Genus,Species,LongevityWild\n"
+                + "120,Scomberomorus,cavalla,14\n"
+                + "1423,Lutjanus,campechanus,NA\n");
+        writeDump("popgrowth.csv", "SpecCode,K,Loo,to\n"
+                + "120,0.30,120.5,-1.2\n"
+                + "120,0.99,99.0,0\n");
+        writeDump("popqb.csv", "SpecCode,PopQB,MaintQB\n"
+                + "1423,4,2\n");
+    }
+
+    @After
+    public void noSnapshot() {
+        TraitSnapshot.use(null);
+    }
+
+    @Test
+    public void importAndLookup() throws IOException {
+        assertThat(TraitSnapshot.importFrom(dumps, FishbaseMapping.getInstance(), snapshotFile), is(2));
+        TraitSnapshot snapshot = TraitSnapshot.open(snapshotFile, FishbaseMapping.getInstance());
+        assertThat(snapshot.size(), is(2));
+        assertThat(snapshot.getColumns(), hasItems("LongevityWild", "K", "PopQB", "MaintQB"));
+
+        Map<String, String> cavalla = snapshot.get("ScomberomorusCavalla");
+        assertThat(cavalla.get("species.lifespan.sp"), is("14"));
+        // rows of a species are combined like FishBase records, by median unless configured otherwise
+        assertThat(cavalla.get("species.K.sp"), is("0.645"));
+        assertThat(cavalla.get("species.t0.sp"), is("-0.6"));
+        assertThat(cavalla.get("predation.efficiency.critical.sp"), is("0.0"));
+
+        Map<String, String> campechanus = snapshot.get("LutjanusCampechanus");
+        assertThat(campechanus.get("species.lifespan.sp"), is("0"));
+        assertThat(campechanus.get("predation.efficiency.critical.sp"), is("0.5"));
+
+        assertThat(snapshot.get("EpinephelusMorio") == null, is(true));
+        assertThat(snapshot.get("groupA") == null, is(true));
+        assertThat(snapshot.getAll(Arrays.asList("ScomberomorusCavalla", "EpinephelusMorio")).keySet(), hasItems("ScomberomorusCavalla"));
+        assertThat(snapshot.getAll(Arrays.asList("ScomberomorusCavalla", "EpinephelusMorio")).size(), is(1));
+    }
+
+    @Test
+    public void swapWhenFileChanges() throws IOException {
+        TraitSnapshot.importFrom(dumps, FishbaseMapping.getInstance(), snapshotFile);
+        assertThat(TraitSnapshot.reloadIfChanged(snapshotFile), is(true));
+        assertThat(TraitSnapshot.reloadIfChanged(snapshotFile), is(false));
+        TraitSnapshot first = TraitSnapshot.current();
+
+        writeDump("species.csv", "SpecCode,Genus,Species,LongevityWild\n"
+                + "120,Scomberomorus,cavalla,21\n");
+        TraitSnapshot.importFrom(dumps, FishbaseMapping.getInstance(), snapshotFile);
+        snapshotFile.setLastModified(snapshotFile.lastModified() + 2000L);
+        assertThat(TraitSnapshot.reloadIfChanged(snapshotFile), is(true));
+        assertThat(TraitSnapshot.current().get("ScomberomorusCavalla").get("species.lifespan.sp"), is("21"));
+        // a snapshot in use stays readable after its file is replaced
+        assertThat(first.get("ScomberomorusCavalla").get("species.lifespan.sp"), is("14"));
+
+        // replaced by renaming, like importFrom does, as rewriting a mapped file in place changes the mapping too
+        File corrupt = new File(folder.getRoot(), "corrupt.bin");
+        FileUtils.writeStringToFile(corrupt, "not a snapshot", StandardCharsets.UTF_8);
+        Files.move(corrupt.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertThat(TraitSnapshot.reloadIfChanged(snapshotFile), is(false));
+        assertThat(TraitSnapshot.current().get("ScomberomorusCavalla").get("species.lifespan.sp"), is("21"));
+    }
+
+    @Test
+    public void snapshotValueFactory() throws IOException {
+        TraitSnapshot.importFrom(dumps, FishbaseMapping.getInstance(), snapshotFile);
+        ValueFactory valueFactory = ConfigUtil.getSnapshotValueFactory(TraitSnapshot.open(snapshotFile, FishbaseMapping.getInstance()));
+        assertThat(valueFactory.valueForInGroup("species.lifespan.sp", "ScomberomorusCavalla"), is("14"));
+        assertThat(valueFactory.valueForInGroup("species.lifespan.sp", "EpinephelusMorio") == null, is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void importWithoutSpeciesTable() throws IOException {
+        TraitSnapshot.importFrom(folder.newFolder("empty"), FishbaseMapping.getInstance(), snapshotFile);
+    }
+
+    private void writeDump(String name, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(dumps, name), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.jhpoelen.fbob;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ZipStreamWriterTest {
+
+    @Test
+    public void abortReleasesWithoutCentralDirectory() throws IOException {
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ZipStreamWriter zip = new ZipStreamWriter(out);
+        zip.putNextEntry("partial.csv").write("one;two".getBytes(StandardCharsets.UTF_8));
+        int written = out.size();
+        zip.abort();
+        zip.close();
+
+        assertThat(out.size(), is(written));
+        assertThat(closed[0], is(true));
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectDuplicateEntries() throws IOException {
+        ZipStreamWriter zip = new ZipStreamWriter(new ByteArrayOutputStream());
+        zip.putNextEntry("maps/A11.csv").write("one".getBytes(StandardCharsets.UTF_8));
+        zip.putStoredEntry("maps/A11.csv", 0, new byte[0]);
+    }
+
+    @Test
+    public void factoryAbortsOnFailure() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Config.toArchive(new HashSet<String>(Arrays.asList(Config.OSMOSE_CONFIG + "/missing.csv")), ArchiveFormat.ZIP.open(out, Compression.DEFAULT));
+        } catch (RuntimeException e) {
+            // no such resource
+        }
+        // the local header of the failed entry went out, but no end of central directory record
+        assertThat(out.size() > 0, is(true));
+        assertThat(new String(out.toByteArray(), StandardCharsets.ISO_8859_1).contains("PK\u0005\u0006"), is(false));
+    }
+
+    @Test
+    public void sameBytesInAnyTimeZone() throws IOException {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Chicago"));
+            byte[] chicago = zipModifiedAt(1451606400000L);
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+            byte[] tokyo = zipModifiedAt(1451606400000L);
+            assertThat(tokyo, is(chicago));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    private static byte[] zipModifiedAt(long modifiedMillis) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(out, Deflater.DEFAULT_COMPRESSION, modifiedMillis)) {
+            zip.putNextEntry("dynamic.csv").write("one;two".getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void mixedEntries() throws IOException {
+        ResourceCatalog.Entry map = ResourceCatalog.getInstance().get("maps/Amberjacks_1.csv");
+        byte[] stored = "stored bytes".getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(out)) {
+            zip.putNextEntry("dynamic.csv").write("one;two".getBytes(StandardCharsets.UTF_8));
+            zip.putDeflatedEntry("maps/spliced.csv", map.getCrc(), map.getSize(), map.getDeflated());
+            zip.putStoredEntry("stored.nc", crc.getValue(), stored);
+            zip.putNextEntry("empty.csv");
+            zip.putNextEntry("maps/ünïcode.csv").write("last".getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteArrayOutputStream expectedMap = new ByteArrayOutputStream();
+        map.writeTo(expectedMap);
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<String> names = new ArrayList<String>();
+        List<String> contents = new ArrayList<String>();
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            names.add(entry.getName());
+            contents.add(IOUtils.toString(zis, "UTF-8"));
+        }
+        assertThat(names, is(Arrays.asList("dynamic.csv", "maps/spliced.csv", "stored.nc", "empty.csv", "maps/ünïcode.csv")));
+        assertThat(contents, is(Arrays.asList("one;two", expectedMap.toString("UTF-8"), "stored bytes", "", "last")));
+
+        File file = File.createTempFile("zip-stream-writer", ".zip");
+        try {
+            Files.write(file.toPath(), out.toByteArray());
+            try (ZipFile zipFile = new ZipFile(file)) {
+                assertThat(zipFile.size(), is(5));
+                ZipEntry spliced = zipFile.getEntry("maps/spliced.csv");
+                assertThat(spliced.getSize(), is((long) map.getSize()));
+                assertThat(spliced.getCrc(), is(map.getCrc()));
+                assertThat(zipFile.getEntry("stored.nc").getMethod(), is(ZipEntry.STORED));
+                assertThat(IOUtils.toString(zipFile.getInputStream(zipFile.getEntry("dynamic.csv")), "UTF-8"), is("one;two"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void factoryStoresBinaryTemplates() throws IOException {
+        assertThat(methodsOfTemplates(false), is(Arrays.asList(ZipEntry.DEFLATED, ZipEntry.DEFLATED)));
+        assertThat(methodsOfTemplates(true), is(Arrays.asList(ZipEntry.DEFLATED, ZipEntry.STORED)));
+    }
+
+    private static List<Integer> methodsOfTemplates(boolean storeBinary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipStreamFactory factory = new ZipStreamFactory(out, Compression.DEFAULT, storeBinary)) {
+            ConfigUtil.generateFromTemplate(factory, "osm_param-grid.csv");
+            ConfigUtil.generateFromTemplate(factory, "osm_ltlbiomass.nc");
+        }
+        List<Integer> methods = new ArrayList<Integer>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            methods.add(entry.getMethod());
+            assertThat(IOUtils.toByteArray(zis).length, is(ResourceCatalog.getInstance().get(entry.getName()).getSize()));
+        }
+        return methods;
+    }
+}